@@ -0,0 +1,113 @@
+package com.example.barth.sunshine;
+
+import android.net.Uri;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * Minimal HTTP server answering every GET with a generated OpenWeatherMap daily
+ * forecast for the requested "q" and "cnt", so refreshes can be measured without
+ * the network.
+ */
+public class StubForecastServer {
+
+    private final ServerSocket mServerSocket;
+    private final Thread mAcceptThread;
+
+    public StubForecastServer() throws IOException {
+        mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        mAcceptThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!mServerSocket.isClosed()) {
+                    try {
+                        final Socket socket = mServerSocket.accept();
+                        new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                serve(socket);
+                            }
+                        }).start();
+                    } catch (IOException e) {
+                        // Closed by shutdown().
+                    }
+                }
+            }
+        }, "StubForecastServer");
+        mAcceptThread.start();
+    }
+
+    public String getBaseUrl() {
+        return "http://127.0.0.1:" + mServerSocket.getLocalPort() + "/data/2.5/forecast/daily?";
+    }
+
+    public void shutdown() throws IOException {
+        mServerSocket.close();
+    }
+
+    private void serve(Socket socket) {
+        try {
+            BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(socket.getInputStream(), "UTF-8"));
+            String requestLine = reader.readLine();
+            String line;
+            while ((line = reader.readLine()) != null && line.length() > 0) {
+                // Headers are ignored.
+            }
+
+            Uri uri = Uri.parse("http://localhost" + requestLine.split(" ")[1]);
+            String city = uri.getQueryParameter("q");
+            String cnt = uri.getQueryParameter("cnt");
+            byte[] body = buildForecastJson(city, cnt == null ? 7 : Integer.parseInt(cnt))
+                    .getBytes("UTF-8");
+
+            OutputStream out = socket.getOutputStream();
+            out.write(("HTTP/1.1 200 OK\r\n"
+                    + "Content-Type: application/json; charset=utf-8\r\n"
+                    + "Content-Length: " + body.length + "\r\n"
+                    + "Connection: close\r\n\r\n").getBytes("UTF-8"));
+            out.write(body);
+            out.flush();
+        } catch (IOException e) {
+            // The client went away, nothing to do.
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Ignored.
+            }
+        }
+    }
+
+    public static String buildForecastJson(String city, int numDays) {
+        StringBuilder json = new StringBuilder(256 + numDays * 256);
+        json.append("{\"city\":{\"id\":2988507,\"name\":\"").append(city)
+                .append("\",\"coord\":{\"lon\":2.3488,\"lat\":48.853409},\"country\":\"FR\"},")
+                .append("\"cod\":\"200\",\"message\":0.0123,\"cnt\":").append(numDays)
+                .append(",\"list\":[");
+        long dt = 1431086400L;
+        for (int i = 0; i < numDays; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"dt\":").append(dt + i * 86400L)
+                    .append(",\"temp\":{\"day\":18.5,\"min\":").append(9 + i % 5)
+                    .append(",\"max\":").append(19 + i % 7)
+                    .append(",\"night\":10.2,\"eve\":16.4,\"morn\":12.1},")
+                    .append("\"pressure\":1012.5,\"humidity\":").append(60 + i % 30)
+                    .append(",\"weather\":[{\"id\":").append(i % 2 == 0 ? 800 : 500)
+                    .append(",\"main\":\"").append(i % 2 == 0 ? "Clear" : "Rain")
+                    .append("\",\"description\":\"sky is clear\",\"icon\":\"01d\"}],")
+                    .append("\"speed\":4.1,\"deg\":").append(i * 40 % 360)
+                    .append(",\"clouds\":0}");
+        }
+        json.append("]}");
+        return json.toString();
+    }
+}
@@ -0,0 +1,224 @@
+package com.example.barth.sunshine;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.text.SimpleDateFormat;
+import java.util.TimeZone;
+
+/**
+ * Upgrades synthetic databases of every historical version to the current one and
+ * checks that the rows survive, in the right shape, within the time budget.
+ *
+ * The old schemas are spelled out here on purpose, they must not follow the changes
+ * made to {@link WeatherDbHelper}.
+ */
+public class TestDbMigrations extends AndroidTestCase {
+    private static final String LOG_TAG = TestDbMigrations.class.getSimpleName();
+
+    private static final String TEST_DATABASE_NAME = "migration_test.db";
+
+    private static final int LOCATION_COUNT = 100;
+    private static final int DAY_COUNT = 120;
+    private static final int ROW_COUNT = LOCATION_COUNT * DAY_COUNT;
+
+    /**
+     * Upgrades run on the first open after an app update, usually on the main thread.
+     */
+    private static final long MIGRATION_BUDGET_MS = 2000;
+
+    // 2015-05-09, the first stored day of every location.
+    private static final int FIRST_YYYYMMDD = 20150509;
+    private static final long FIRST_EPOCH_DAY = 16564;
+
+    private static final String SQL_CREATE_WEATHER_TABLE_V2 = "CREATE TABLE weather (" +
+            "_id INTEGER PRIMARY KEY AUTOINCREMENT," +
+            "location_id INTEGER NOT NULL, " +
+            "date INTEGER NOT NULL, " +
+            "short_desc TEXT NOT NULL, " +
+            "weather_id INTEGER NOT NULL," +
+            "min REAL NOT NULL, " +
+            "max REAL NOT NULL, " +
+            "humidity REAL NOT NULL, " +
+            "pressure REAL NOT NULL, " +
+            "wind REAL NOT NULL, " +
+            "degree REAL NOT NULL, " +
+            "FOREIGN KEY (location_id) REFERENCES location(_id), " +
+            "UNIQUE (date, location_id) ON CONFLICT REPLACE);";
+
+    private static final String SQL_CREATE_LOCATION_TABLE_V2 = "CREATE TABLE location (" +
+            "_id INTEGER PRIMARY KEY," +
+            "location_setting TEXT UNIQUE NOT NULL, " +
+            "city_name TEXT NOT NULL, " +
+            "coord_lat REAL NOT NULL, " +
+            "coord_long REAL NOT NULL);";
+
+    private static final String SQL_CREATE_INDEX_V3 =
+            "CREATE INDEX weather_location_date_idx ON weather (location_id, date);";
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(TEST_DATABASE_NAME);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.deleteDatabase(TEST_DATABASE_NAME);
+        super.tearDown();
+    }
+
+    public void testEveryVersionHasAPath() {
+        for (int version = WeatherDbMigrations.OLDEST_MIGRATABLE_VERSION;
+             version < WeatherDbHelper.DATABASE_VERSION; version++) {
+            assertTrue("No migration from version " + version,
+                    WeatherDbMigrations.canMigrate(version, WeatherDbHelper.DATABASE_VERSION));
+        }
+    }
+
+    public void testUpgradeFromVersion2() {
+        createVersion2();
+        assertMigrated(2);
+    }
+
+    public void testUpgradeFromVersion3() {
+        createVersion3();
+        assertMigrated(3);
+    }
+
+    public void testUpgradeFromVersion4() {
+        createVersion4();
+        assertMigrated(4);
+    }
+
+    public void testUnknownVersionIsRecreated() {
+        SQLiteDatabase db = openTestDatabase();
+        db.execSQL(SQL_CREATE_WEATHER_TABLE_V2);
+        db.execSQL(SQL_CREATE_LOCATION_TABLE_V2);
+        fill(db, false);
+        db.setVersion(1);
+        db.close();
+
+        SQLiteDatabase upgraded = new WeatherDbHelper(mContext, TEST_DATABASE_NAME).getWritableDatabase();
+        try {
+            assertEquals(WeatherDbHelper.DATABASE_VERSION, upgraded.getVersion());
+            assertEquals(0, DatabaseUtils.queryNumEntries(upgraded, WeatherContract.WeatherEntry.TABLE_NAME));
+            assertEquals(0, DatabaseUtils.queryNumEntries(upgraded, WeatherContract.LocationEntry.TABLE_NAME));
+        } finally {
+            upgraded.close();
+        }
+    }
+
+    private void createVersion2() {
+        SQLiteDatabase db = openTestDatabase();
+        db.execSQL(SQL_CREATE_WEATHER_TABLE_V2);
+        db.execSQL(SQL_CREATE_LOCATION_TABLE_V2);
+        fill(db, false);
+        db.setVersion(2);
+        db.close();
+    }
+
+    private void createVersion3() {
+        SQLiteDatabase db = openTestDatabase();
+        db.execSQL(SQL_CREATE_WEATHER_TABLE_V2);
+        db.execSQL(SQL_CREATE_LOCATION_TABLE_V2);
+        db.execSQL(SQL_CREATE_INDEX_V3);
+        fill(db, false);
+        db.setVersion(3);
+        db.close();
+    }
+
+    private void createVersion4() {
+        SQLiteDatabase db = openTestDatabase();
+        db.execSQL(SQL_CREATE_WEATHER_TABLE_V2);
+        db.execSQL(SQL_CREATE_LOCATION_TABLE_V2);
+        db.execSQL(SQL_CREATE_INDEX_V3);
+        fill(db, true);
+        db.setVersion(4);
+        db.close();
+    }
+
+    private SQLiteDatabase openTestDatabase() {
+        return SQLiteDatabase.openOrCreateDatabase(mContext.getDatabasePath(TEST_DATABASE_NAME), null);
+    }
+
+    /**
+     * LOCATION_COUNT locations with DAY_COUNT consecutive days each, dates as epoch
+     * days or as the yyyyMMdd strings versions 2 and 3 stored.
+     */
+    private void fill(SQLiteDatabase db, boolean epochDays) {
+        SimpleDateFormat yyyyMMdd = new SimpleDateFormat("yyyyMMdd");
+        yyyyMMdd.setTimeZone(TimeZone.getTimeZone("UTC"));
+        db.beginTransaction();
+        try {
+            SQLiteStatement location = db.compileStatement(
+                    "INSERT INTO location (_id, location_setting, city_name, coord_lat, coord_long) "
+                            + "VALUES (?, ?, ?, 0, 0)");
+            SQLiteStatement weather = db.compileStatement(
+                    "INSERT INTO weather (location_id, date, short_desc, weather_id, min, max, "
+                            + "humidity, pressure, wind, degree) VALUES (?, ?, 'Clear', 800, 10, 20, 50, 1000, 3, 180)");
+            for (int locationId = 1; locationId <= LOCATION_COUNT; locationId++) {
+                location.bindLong(1, locationId);
+                location.bindString(2, "location " + locationId);
+                location.bindString(3, "City " + locationId);
+                location.executeInsert();
+
+                for (int day = 0; day < DAY_COUNT; day++) {
+                    weather.bindLong(1, locationId);
+                    if (epochDays) {
+                        weather.bindLong(2, FIRST_EPOCH_DAY + day);
+                    } else {
+                        weather.bindString(2, yyyyMMdd.format(
+                                WeatherContract.epochDayToMillis(FIRST_EPOCH_DAY + day)));
+                    }
+                    weather.executeInsert();
+                }
+            }
+            location.close();
+            weather.close();
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private void assertMigrated(int fromVersion) {
+        long start = SystemClock.elapsedRealtime();
+        SQLiteDatabase db = new WeatherDbHelper(mContext, TEST_DATABASE_NAME).getWritableDatabase();
+        long elapsedMs = SystemClock.elapsedRealtime() - start;
+        Log.i(LOG_TAG, "Version " + fromVersion + " with " + ROW_COUNT + " rows upgraded in " + elapsedMs + " ms");
+
+        try {
+            assertEquals(WeatherDbHelper.DATABASE_VERSION, db.getVersion());
+            assertTrue("Upgrade from version " + fromVersion + " took " + elapsedMs + " ms",
+                    elapsedMs <= MIGRATION_BUDGET_MS);
+
+            assertEquals(ROW_COUNT, DatabaseUtils.queryNumEntries(db, WeatherContract.WeatherEntry.TABLE_NAME));
+            assertEquals(LOCATION_COUNT, DatabaseUtils.queryNumEntries(db, WeatherContract.LocationEntry.TABLE_NAME));
+
+            assertEquals(1, DatabaseUtils.longForQuery(db,
+                    "SELECT count(*) FROM sqlite_master WHERE type = 'index' AND name = ?",
+                    new String[]{WeatherDbHelper.WEATHER_LOCATION_DATE_INDEX}));
+
+            assertEquals("Clear", DatabaseUtils.stringForQuery(db,
+                    "SELECT short_desc FROM condition WHERE _id = 800", null));
+
+            Cursor range = db.rawQuery("SELECT min(date), max(date), count(DISTINCT date) FROM weather", null);
+            try {
+                assertTrue(range.moveToFirst());
+                assertEquals(FIRST_EPOCH_DAY, range.getLong(0));
+                assertEquals(FIRST_EPOCH_DAY + DAY_COUNT - 1, range.getLong(1));
+                assertEquals(DAY_COUNT, range.getInt(2));
+            } finally {
+                range.close();
+            }
+        } finally {
+            db.close();
+        }
+    }
+}
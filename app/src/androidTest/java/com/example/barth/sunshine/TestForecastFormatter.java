@@ -0,0 +1,149 @@
+package com.example.barth.sunshine;
+
+import android.content.SharedPreferences;
+import android.os.Debug;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.text.SimpleDateFormat;
+import java.util.TimeZone;
+
+/**
+ * Time and allocations of formatting the date and temperatures of one list row, with
+ * {@link ForecastFormatter} and with the previous way of reading the preferences and
+ * building a date format and strings on every row. Once its date table is warm, the
+ * formatter should not allocate at all.
+ */
+public class TestForecastFormatter extends AndroidTestCase {
+    private static final String LOG_TAG = TestForecastFormatter.class.getSimpleName();
+
+    private static final int ROW_COUNT = 10000;
+    private static final int DAY_COUNT = 16;
+
+    private String mSavedUnits;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mSavedUnits = getPrefs().getString(mContext.getString(R.string.pref_units_key), null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        setUnits(mSavedUnits);
+        super.tearDown();
+    }
+
+    private SharedPreferences getPrefs() {
+        return PreferenceManager.getDefaultSharedPreferences(mContext);
+    }
+
+    private void setUnits(String units) {
+        getPrefs().edit().putString(mContext.getString(R.string.pref_units_key), units).commit();
+    }
+
+    /**
+     * Preference listeners are called on the main thread, not on the test one.
+     */
+    private void waitForUnits(ForecastFormatter formatter, boolean imperial) throws InterruptedException {
+        long deadline = SystemClock.elapsedRealtime() + 1000;
+        while (formatter.isImperial() != imperial && SystemClock.elapsedRealtime() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    public void testFormatHighLows() throws InterruptedException {
+        ForecastFormatter formatter = ForecastFormatter.getInstance(mContext);
+        char[] buffer = new char[ForecastFormatter.HIGH_LOW_BUFFER_SIZE];
+
+        setUnits("metric");
+        waitForUnits(formatter, false);
+        assertEquals("21/-3", new String(buffer, 0, formatter.formatHighLows(21.4, -2.6, buffer)));
+        assertEquals("0/0", formatter.formatHighLows(0.2, -0.2));
+
+        // The listener picks the change up, the formatter is not rebuilt.
+        setUnits(mContext.getString(R.string.prefs_units_imperial));
+        waitForUnits(formatter, true);
+        assertTrue(formatter.isImperial());
+        assertEquals("212/32", formatter.formatHighLows(100, 0));
+    }
+
+    public void testFormatDate() {
+        long epochDay = WeatherContract.toEpochDay(System.currentTimeMillis());
+        ForecastFormatter formatter = ForecastFormatter.getInstance(mContext);
+        assertEquals(formatLegacyDate(epochDay), formatter.formatDate(epochDay));
+        // Same slot of the table, another day.
+        assertEquals(formatLegacyDate(epochDay + 64), formatter.formatDate(epochDay + 64));
+        assertSame(formatter.formatDate(epochDay), formatter.formatDate(epochDay));
+    }
+
+    public void testRowFormattingBenchmark() throws InterruptedException {
+        setUnits("metric");
+        waitForUnits(ForecastFormatter.getInstance(mContext), false);
+        long firstDay = WeatherContract.toEpochDay(System.currentTimeMillis());
+
+        Debug.startAllocCounting();
+        try {
+            Debug.resetThreadAllocCount();
+            long start = SystemClock.elapsedRealtime();
+            int checksum = 0;
+            for (int row = 0; row < ROW_COUNT; row++) {
+                long epochDay = firstDay + row % DAY_COUNT;
+                checksum += formatLegacyDate(epochDay).length();
+                checksum += formatLegacyHighLows(20 + row % 7, 10 - row % 5).length();
+            }
+            long legacyMs = SystemClock.elapsedRealtime() - start;
+            int legacyAllocs = Debug.getThreadAllocCount();
+
+            ForecastFormatter formatter = ForecastFormatter.getInstance(mContext);
+            char[] buffer = new char[ForecastFormatter.HIGH_LOW_BUFFER_SIZE];
+            for (int day = 0; day < DAY_COUNT; day++) {
+                formatter.formatDate(firstDay + day);
+            }
+
+            Debug.resetThreadAllocCount();
+            start = SystemClock.elapsedRealtime();
+            for (int row = 0; row < ROW_COUNT; row++) {
+                long epochDay = firstDay + row % DAY_COUNT;
+                checksum += formatter.formatDate(epochDay).length();
+                checksum += formatter.formatHighLows(20 + row % 7, 10 - row % 5, buffer);
+            }
+            long formatterMs = SystemClock.elapsedRealtime() - start;
+            int formatterAllocs = Debug.getThreadAllocCount();
+
+            Log.i(LOG_TAG, ROW_COUNT + " rows: legacy " + legacyMs + " ms, " + legacyAllocs
+                    + " allocations; formatter " + formatterMs + " ms, " + formatterAllocs
+                    + " allocations (checksum " + checksum + ")");
+            // Some runtimes count nothing, the comparison then holds trivially.
+            assertTrue("Formatter allocated " + formatterAllocs + " objects",
+                    formatterAllocs <= legacyAllocs / 100);
+        } finally {
+            Debug.stopAllocCounting();
+        }
+    }
+
+    /**
+     * What Utility.getReadableDateString did before the formatter.
+     */
+    private static String formatLegacyDate(long epochDay) {
+        SimpleDateFormat shortenedDateFormat = new SimpleDateFormat("EEE MMM dd");
+        shortenedDateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return shortenedDateFormat.format(WeatherContract.epochDayToMillis(epochDay));
+    }
+
+    /**
+     * What Utility.formatHighLows did before the formatter.
+     */
+    private String formatLegacyHighLows(double high, double low) {
+        SharedPreferences sharedPrefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        String unitType = sharedPrefs.getString(mContext.getString(R.string.pref_units_key),
+                mContext.getString(R.string.pref_units_metric));
+        if (unitType.equals(mContext.getString(R.string.prefs_units_imperial))) {
+            high = (high * 1.8) + 32;
+            low = (low * 1.8) + 32;
+        }
+        return Math.round(high) + "/" + Math.round(low);
+    }
+}
@@ -0,0 +1,190 @@
+package com.example.barth.sunshine;
+
+import android.content.ContentProviderClient;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+
+import java.util.Arrays;
+
+/**
+ * Runs the projections of the forecast list and of the detail view through
+ * {@link ForecastQueryCache}, and checks that the cursors it serves match the ones
+ * SQLite returns for the same query, before and after writes.
+ */
+public class TestForecastQueryCache extends AndroidTestCase {
+
+    private static final String LOCATION_SETTING = "cache";
+    private static final int DAY_COUNT = 14;
+    private static final String SORT_ASC = WeatherContract.WeatherEntry.COLUMN_DATE + " ASC";
+    private static final String SORT_DESC = WeatherContract.WeatherEntry.COLUMN_DATE + " DESC";
+
+    private long mToday;
+    private WeatherDbHelper mHelper;
+    private ContentProviderClient mClient;
+    private ForecastQueryCache mCache;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mToday = WeatherContract.toLocalEpochDay(System.currentTimeMillis());
+        deleteAllRecords();
+        mHelper = new WeatherDbHelper(mContext);
+        mClient = mContext.getContentResolver()
+                .acquireContentProviderClient(WeatherContract.BASE_CONTENT_URI);
+        mCache = ((WeatherProvider) mClient.getLocalContentProvider()).getForecastCache();
+        ingest(0);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mClient.release();
+        mHelper.close();
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+    }
+
+    /**
+     * Stores {@link #DAY_COUNT} days from yesterday, their temperatures shifted by {@code delta}.
+     */
+    private void ingest(double delta) {
+        ForecastBatch batch = new ForecastBatch(LOCATION_SETTING);
+        batch.onCity("Cache", 48.85, 2.35);
+        ForecastJsonParser.Day day = new ForecastJsonParser.Day();
+        for (int i = 0; i < DAY_COUNT; i++) {
+            day.dateTime = WeatherContract.epochDayToMillis(mToday - 1 + i) / 1000 + 12 * 60 * 60;
+            day.high = 20.5 + i + delta;
+            day.low = 10.25 - i + delta;
+            day.humidity = 60;
+            day.pressure = 1012;
+            day.windSpeed = 3.5;
+            day.windDirection = 270;
+            day.weatherId = i % 2 == 0 ? 800 : 500;
+            day.description = i % 2 == 0 ? "Clear" : "Rain";
+            batch.onDay(day);
+        }
+        Bundle extras = new Bundle();
+        extras.putParcelableArray(WeatherContract.EXTRA_BATCHES, new ForecastBatch[]{batch});
+        mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_INGEST, null, extras);
+    }
+
+    /**
+     * Queries the provider, and checks the cursor came from the cache.
+     */
+    private Cursor queryCache(Uri uri, String[] projection, String sortOrder) {
+        int lookups = mCache.getHitCount() + mCache.getMissCount();
+        Cursor cursor = mContext.getContentResolver().query(uri, projection, null, null, sortOrder);
+        assertEquals("Not served by the cache: " + uri,
+                lookups + 1, mCache.getHitCount() + mCache.getMissCount());
+        return cursor;
+    }
+
+    /**
+     * Runs the query the provider falls back to, straight on the database.
+     */
+    private Cursor querySqlite(String[] projection, String selection, String[] selectionArgs,
+                               String sortOrder) {
+        SQLiteDatabase db = mHelper.getReadableDatabase();
+        return WeatherProvider.QueryBuilderHolder.sWeatherByLocationSettingQueryBuilder.query(
+                db, projection, selection, selectionArgs, null, null, sortOrder);
+    }
+
+    private static void assertSameCursor(Cursor expected, Cursor actual) {
+        try {
+            assertEquals(Arrays.asList(expected.getColumnNames()),
+                    Arrays.asList(actual.getColumnNames()));
+            // What CursorAdapter looks up.
+            assertEquals(expected.getColumnIndexOrThrow("_id"), actual.getColumnIndexOrThrow("_id"));
+            assertEquals(expected.getCount(), actual.getCount());
+            while (expected.moveToNext()) {
+                assertTrue(actual.moveToNext());
+                for (int column = 0; column < expected.getColumnCount(); column++) {
+                    assertEquals("Row " + expected.getPosition() + ", " + expected.getColumnName(column),
+                            expected.getString(column), actual.getString(column));
+                }
+            }
+            assertFalse(actual.moveToNext());
+        } finally {
+            expected.close();
+            actual.close();
+        }
+    }
+
+    public void testForecastColumns() {
+        Uri uri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(LOCATION_SETTING, mToday);
+        String[] selectionArgs = {LOCATION_SETTING, Long.toString(mToday)};
+
+        Cursor cached = queryCache(uri, ForecastFragment.FORECAST_COLUMNS, SORT_ASC);
+        assertEquals(DAY_COUNT - 1, cached.getCount());
+        assertSameCursor(querySqlite(ForecastFragment.FORECAST_COLUMNS,
+                WeatherProvider.sLocationSettingWithStartDateSelection, selectionArgs, SORT_ASC), cached);
+
+        cached = queryCache(uri, ForecastFragment.FORECAST_COLUMNS, SORT_DESC);
+        assertTrue(cached.moveToFirst());
+        assertEquals(mToday + DAY_COUNT - 2, cached.getLong(ForecastFragment.COL_WEATHER_DATE));
+        cached.moveToPosition(-1);
+        assertSameCursor(querySqlite(ForecastFragment.FORECAST_COLUMNS,
+                WeatherProvider.sLocationSettingWithStartDateSelection, selectionArgs, SORT_DESC), cached);
+    }
+
+    public void testDetailColumns() {
+        long date = mToday + 2;
+        Uri uri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(LOCATION_SETTING, date);
+
+        Cursor cached = queryCache(uri, DetailActivity.DetailFragment.DETAIL_COLUMNS, null);
+        assertEquals(1, cached.getCount());
+        assertSameCursor(querySqlite(DetailActivity.DetailFragment.DETAIL_COLUMNS,
+                WeatherProvider.sLocationSettingAndDaySelection,
+                new String[]{LOCATION_SETTING, Long.toString(date)}, null), cached);
+    }
+
+    public void testInvalidatedByIngest() {
+        Uri uri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(LOCATION_SETTING, mToday);
+        Cursor cached = queryCache(uri, ForecastFragment.FORECAST_COLUMNS, SORT_ASC);
+        assertTrue(cached.moveToFirst());
+        assertEquals(21.5, cached.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP), 0.001);
+        cached.close();
+
+        ingest(5);
+        cached = queryCache(uri, ForecastFragment.FORECAST_COLUMNS, SORT_ASC);
+        assertTrue(cached.moveToFirst());
+        assertEquals(26.5, cached.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP), 0.001);
+        cached.moveToPosition(-1);
+        assertSameCursor(querySqlite(ForecastFragment.FORECAST_COLUMNS,
+                WeatherProvider.sLocationSettingWithStartDateSelection,
+                new String[]{LOCATION_SETTING, Long.toString(mToday)}, SORT_ASC), cached);
+    }
+
+    public void testInvalidatedByPurge() {
+        Uri uri = WeatherContract.WeatherEntry.buildWeatherLocation(LOCATION_SETTING);
+        Cursor cached = queryCache(uri, ForecastFragment.FORECAST_COLUMNS, SORT_ASC);
+        assertEquals(DAY_COUNT, cached.getCount());
+        cached.close();
+
+        // Yesterday goes, the location is kept.
+        Bundle purge = new Bundle();
+        purge.putLong(WeatherContract.EXTRA_OLDEST_DAY, mToday);
+        purge.putStringArray(WeatherContract.EXTRA_KEEP_LOCATIONS, new String[]{LOCATION_SETTING});
+        mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_PURGE, null, purge);
+        cached = queryCache(uri, ForecastFragment.FORECAST_COLUMNS, SORT_ASC);
+        assertSameCursor(querySqlite(ForecastFragment.FORECAST_COLUMNS,
+                WeatherProvider.sLocationSettingSelection, new String[]{LOCATION_SETTING}, SORT_ASC), cached);
+
+        // The location goes too.
+        purge.putStringArray(WeatherContract.EXTRA_KEEP_LOCATIONS, new String[0]);
+        mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_PURGE, null, purge);
+        cached = queryCache(uri, ForecastFragment.FORECAST_COLUMNS, SORT_ASC);
+        assertEquals(0, cached.getCount());
+        cached.close();
+    }
+}
@@ -0,0 +1,133 @@
+package com.example.barth.sunshine;
+
+import android.database.Cursor;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+/**
+ * Round trip of {@link ForecastSnapshot}, and the time to a first forecast cursor from
+ * the snapshot against a query of the provider on a database opened for the occasion,
+ * as on a cold start.
+ */
+public class TestForecastSnapshot extends AndroidTestCase {
+    private static final String LOG_TAG = TestForecastSnapshot.class.getSimpleName();
+
+    private static final String LOCATION_SETTING = "snapshot";
+    private static final int DAY_COUNT = 16;
+    private static final int RUN_COUNT = 20;
+
+    private long mToday;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mToday = WeatherContract.toLocalEpochDay(System.currentTimeMillis());
+        getSnapshotFile().delete();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        getSnapshotFile().delete();
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        super.tearDown();
+    }
+
+    private File getSnapshotFile() {
+        return new File(mContext.getFilesDir(), ForecastSnapshot.FILE_NAME);
+    }
+
+    private ForecastBatch createBatch() throws Exception {
+        ForecastBatch batch = new ForecastBatch(LOCATION_SETTING);
+        batch.onCity("Snapshot", 48.85, 2.35);
+        ForecastJsonParser.Day day = new ForecastJsonParser.Day();
+        for (int i = 0; i < DAY_COUNT; i++) {
+            day.dateTime = WeatherContract.epochDayToMillis(mToday + i) / 1000 + 12 * 60 * 60;
+            day.high = 20.5 + i;
+            day.low = 10.25 - i;
+            day.humidity = 60;
+            day.pressure = 1012;
+            day.weatherId = i % 2 == 0 ? 800 : 500;
+            day.description = i % 2 == 0 ? "Clear" : "Rain";
+            batch.onDay(day);
+        }
+        return batch;
+    }
+
+    public void testRoundTrip() throws Exception {
+        assertNull(ForecastSnapshot.read(mContext));
+
+        ForecastSnapshot.write(mContext, createBatch());
+        ForecastSnapshot snapshot = ForecastSnapshot.read(mContext);
+        assertNotNull(snapshot);
+        assertEquals(LOCATION_SETTING, snapshot.getLocationSetting());
+        assertEquals(DAY_COUNT, snapshot.size());
+
+        // Yesterday is left out, whatever the snapshot holds.
+        Cursor cursor = snapshot.toCursor(mToday + 1);
+        try {
+            assertEquals(DAY_COUNT - 1, cursor.getCount());
+            assertTrue(cursor.moveToFirst());
+            assertEquals(mToday + 1, cursor.getLong(ForecastFragment.COL_WEATHER_DATE));
+            assertEquals(500, cursor.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID));
+            assertEquals(21.5, cursor.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP), 0.001);
+            assertEquals(9.25, cursor.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP), 0.001);
+            assertEquals(LOCATION_SETTING, cursor.getString(ForecastFragment.COL_LOCATION_SETTING));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void testCorruptFileIsIgnored() throws Exception {
+        FileOutputStream out = new FileOutputStream(getSnapshotFile());
+        try {
+            out.write(new byte[]{'S', 'N', 'S', 'H', 0, 1, 0});
+        } finally {
+            out.close();
+        }
+        assertNull(ForecastSnapshot.read(mContext));
+    }
+
+    public void testTimeToFirstForecast() throws Exception {
+        ForecastBatch batch = createBatch();
+        Bundle extras = new Bundle();
+        extras.putParcelableArray(WeatherContract.EXTRA_BATCHES, new ForecastBatch[]{batch});
+        mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_INGEST, null, extras);
+        ForecastSnapshot.write(mContext, batch);
+
+        long snapshotMs = 0;
+        long databaseMs = 0;
+        for (int run = 0; run < RUN_COUNT; run++) {
+            long start = SystemClock.elapsedRealtime();
+            Cursor cursor = ForecastSnapshot.read(mContext).toCursor(mToday);
+            assertEquals(DAY_COUNT, cursor.getCount());
+            cursor.close();
+            snapshotMs += SystemClock.elapsedRealtime() - start;
+
+            // A new helper opens the database again, as a cold process would.
+            WeatherDbHelper helper = new WeatherDbHelper(mContext);
+            start = SystemClock.elapsedRealtime();
+            cursor = helper.getReadableDatabase().rawQuery("SELECT * FROM "
+                    + WeatherContract.WeatherEntry.TABLE_NAME + " JOIN "
+                    + WeatherContract.LocationEntry.TABLE_NAME + " ON "
+                    + WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = "
+                    + WeatherContract.LocationEntry.TABLE_NAME + "." + WeatherContract.LocationEntry._ID
+                    + " WHERE " + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND "
+                    + WeatherContract.WeatherEntry.COLUMN_DATE + " >= ?",
+                    new String[]{LOCATION_SETTING, Long.toString(mToday)});
+            assertEquals(DAY_COUNT, cursor.getCount());
+            cursor.close();
+            helper.close();
+            databaseMs += SystemClock.elapsedRealtime() - start;
+        }
+
+        Log.i(LOG_TAG, "First forecast: snapshot " + (float) snapshotMs / RUN_COUNT
+                + " ms, database open and query " + (float) databaseMs / RUN_COUNT + " ms");
+        assertTrue("Snapshot slower than the database", snapshotMs <= databaseMs);
+    }
+}
@@ -0,0 +1,66 @@
+package com.example.barth.sunshine;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+/**
+ * Runs EXPLAIN QUERY PLAN on the queries of {@link WeatherProvider} and fails when
+ * SQLite would scan a table instead of searching an index.
+ */
+public class TestQueryPlans extends AndroidTestCase {
+    private static final String LOG_TAG = TestQueryPlans.class.getSimpleName();
+
+    private static final String SORT_ORDER = WeatherContract.WeatherEntry.COLUMN_DATE + " ASC";
+
+    private WeatherDbHelper mHelper;
+    private SQLiteDatabase mDb;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mHelper = new WeatherDbHelper(mContext);
+        mDb = mHelper.getReadableDatabase();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mHelper.close();
+        super.tearDown();
+    }
+
+    public void testLocationSettingSelection() {
+        assertNoFullScan(WeatherProvider.sLocationSettingSelection,
+                new String[]{"94043"});
+    }
+
+    public void testLocationSettingWithStartDateSelection() {
+        assertNoFullScan(WeatherProvider.sLocationSettingWithStartDateSelection,
+                new String[]{"94043", "16564"});
+    }
+
+    public void testLocationSettingAndDaySelection() {
+        assertNoFullScan(WeatherProvider.sLocationSettingAndDaySelection,
+                new String[]{"94043", "16564"});
+    }
+
+    private void assertNoFullScan(String selection, String[] selectionArgs) {
+        String sql = WeatherProvider.QueryBuilderHolder.sWeatherByLocationSettingQueryBuilder.buildQuery(
+                ForecastFragment.FORECAST_COLUMNS, selection, null, null, SORT_ORDER, null);
+
+        Cursor plan = mDb.rawQuery("EXPLAIN QUERY PLAN " + sql, selectionArgs);
+        try {
+            int detailIndex = plan.getColumnIndexOrThrow("detail");
+            assertTrue("No plan for " + sql, plan.moveToFirst());
+            do {
+                String detail = plan.getString(detailIndex);
+                Log.v(LOG_TAG, selection + ": " + detail);
+                assertFalse("Full scan in \"" + detail + "\" for " + sql,
+                        detail.startsWith("SCAN"));
+            } while (plan.moveToNext());
+        } finally {
+            plan.close();
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.example.barth.sunshine;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.Arrays;
+
+/**
+ * Latency of the forecast list query while another thread keeps writing large
+ * {@link WeatherProvider#bulkInsert} transactions, reported as p50 and p99. In
+ * write-ahead log mode the reads should not wait for the writer.
+ *
+ * The query runs straight on the database: through the provider it would be served by
+ * {@link ForecastQueryCache}, and measure the cache instead.
+ */
+public class TestReadWriteContention extends AndroidTestCase {
+    private static final String LOG_TAG = TestReadWriteContention.class.getSimpleName();
+
+    private static final String LOCATION_SETTING = "contention";
+    private static final int WRITER_LOCATION_COUNT = 20;
+    private static final int WRITER_DAY_COUNT = 365;
+    private static final int READER_DAY_COUNT = 16;
+    private static final int QUERY_COUNT = 500;
+
+    private long mLocationId;
+    private WeatherDbHelper mHelper;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+        mHelper = new WeatherDbHelper(mContext);
+
+        ContentValues location = new ContentValues();
+        location.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, LOCATION_SETTING);
+        location.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, "Contention");
+        location.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, 0);
+        location.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, 0);
+        Uri locationUri = mContext.getContentResolver()
+                .insert(WeatherContract.LocationEntry.CONTENT_URI, location);
+        mLocationId = Long.parseLong(locationUri.getLastPathSegment());
+
+        ContentValues[] days = new ContentValues[READER_DAY_COUNT];
+        long now = System.currentTimeMillis();
+        for (int day = 0; day < READER_DAY_COUNT; day++) {
+            days[day] = TestUpsertThroughput.createWeatherValues(mLocationId,
+                    now + day * WeatherContract.DAY_IN_MILLIS, day);
+        }
+        mContext.getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, days);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mHelper.close();
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+    }
+
+    public void testJournalModeIsWal() {
+        String mode = DatabaseUtils.stringForQuery(
+                mHelper.getReadableDatabase(), "PRAGMA journal_mode", null);
+        assertEquals("wal", mode.toLowerCase());
+    }
+
+    public void testQueryLatencyDuringIngest() throws InterruptedException {
+        long[] idle = measureQueries();
+
+        final ContentValues[][] batches = buildWriterBatches();
+        final boolean[] stop = new boolean[1];
+        final int[] transactions = new int[1];
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                int pass = 0;
+                while (true) {
+                    synchronized (stop) {
+                        if (stop[0]) {
+                            return;
+                        }
+                    }
+                    // Change one value per pass so every row is rewritten.
+                    for (ContentValues[] batch : batches) {
+                        for (ContentValues values : batch) {
+                            values.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, 1000 + pass);
+                        }
+                        mContext.getContentResolver()
+                                .bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, batch);
+                        synchronized (stop) {
+                            transactions[0]++;
+                        }
+                    }
+                    pass++;
+                }
+            }
+        }, "Contention writer");
+
+        writer.start();
+        long[] contended;
+        try {
+            contended = measureQueries();
+        } finally {
+            synchronized (stop) {
+                stop[0] = true;
+            }
+            writer.join();
+        }
+
+        Log.i(LOG_TAG, "Idle: p50 " + percentile(idle, 50) + " ms, p99 " + percentile(idle, 99) + " ms");
+        Log.i(LOG_TAG, "During " + transactions[0] + " ingest transactions: p50 "
+                + percentile(contended, 50) + " ms, p99 " + percentile(contended, 99) + " ms");
+        assertTrue("The writer never committed", transactions[0] > 0);
+    }
+
+    /**
+     * Runs the forecast list query QUERY_COUNT times and returns the sorted latencies,
+     * each one covering the query and reading every row.
+     */
+    private long[] measureQueries() {
+        SQLiteDatabase db = mHelper.getReadableDatabase();
+        String[] selectionArgs = {LOCATION_SETTING,
+                Long.toString(WeatherContract.toLocalEpochDay(System.currentTimeMillis()))};
+        String sortOrder = WeatherContract.WeatherEntry.COLUMN_DATE + " ASC";
+
+        long[] latencies = new long[QUERY_COUNT];
+        for (int i = 0; i < QUERY_COUNT; i++) {
+            long start = SystemClock.elapsedRealtime();
+            Cursor cursor = WeatherProvider.QueryBuilderHolder.sWeatherByLocationSettingQueryBuilder.query(
+                    db, ForecastFragment.FORECAST_COLUMNS,
+                    WeatherProvider.sLocationSettingWithStartDateSelection, selectionArgs,
+                    null, null, sortOrder);
+            try {
+                while (cursor.moveToNext()) {
+                    cursor.getLong(ForecastFragment.COL_WEATHER_DATE);
+                }
+            } finally {
+                cursor.close();
+            }
+            latencies[i] = SystemClock.elapsedRealtime() - start;
+        }
+        Arrays.sort(latencies);
+        return latencies;
+    }
+
+    private ContentValues[][] buildWriterBatches() {
+        ContentValues[][] batches = new ContentValues[WRITER_LOCATION_COUNT][];
+        long now = System.currentTimeMillis();
+        for (int location = 0; location < WRITER_LOCATION_COUNT; location++) {
+            batches[location] = new ContentValues[WRITER_DAY_COUNT];
+            for (int day = 0; day < WRITER_DAY_COUNT; day++) {
+                // Ids past the reader's location, no join ever reaches these rows.
+                batches[location][day] = TestUpsertThroughput.createWeatherValues(
+                        mLocationId + 1 + location, now + day * WeatherContract.DAY_IN_MILLIS, day);
+            }
+        }
+        return batches;
+    }
+
+    private static long percentile(long[] sorted, int percent) {
+        int index = (int) Math.ceil(percent / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+}
@@ -0,0 +1,75 @@
+package com.example.barth.sunshine;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Throughput of {@link WeatherRefreshEngine} against {@link StubForecastServer}.
+ * The locations refreshed per second are written to logcat.
+ */
+public class TestRefreshThroughput extends AndroidTestCase {
+    private static final String LOG_TAG = TestRefreshThroughput.class.getSimpleName();
+
+    private static final int LOCATION_COUNT = 48;
+    private static final int DAY_COUNT = 16;
+
+    private StubForecastServer mServer;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mServer = new StubForecastServer();
+        deleteAllRecords();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+    }
+
+    public void testRefreshThroughput() throws Exception {
+        List<String> locations = new ArrayList<String>(LOCATION_COUNT);
+        for (int i = 0; i < LOCATION_COUNT; i++) {
+            locations.add("City" + i);
+        }
+
+        int[] workerCounts = {1, 4, 8};
+        for (int workers : workerCounts) {
+            deleteAllRecords();
+            WeatherRefreshEngine engine = new WeatherRefreshEngine(mContext,
+                    new ForecastFetcher(mServer.getBaseUrl(), DAY_COUNT),
+                    workers, WeatherRefreshEngine.DEFAULT_MAX_PER_HOST * workers);
+            try {
+                WeatherRefreshEngine.Result result = engine.refresh(locations);
+
+                assertEquals(LOCATION_COUNT, result.locationsRefreshed);
+                assertEquals(0, result.locationsFailed);
+                // Into an empty database: every location row and every weather row.
+                assertEquals(LOCATION_COUNT * (1 + DAY_COUNT), result.rowsWritten);
+
+                double perSecond = result.locationsRefreshed * 1000.0 / Math.max(1, result.elapsedMs);
+                Log.i(LOG_TAG, workers + " workers: " + String.format("%.1f", perSecond)
+                        + " locations/s (" + result + ")");
+
+                // The same forecasts again: downloaded and parsed, nothing to write.
+                result = engine.refresh(locations);
+                assertEquals(LOCATION_COUNT, result.locationsRefreshed);
+                assertEquals(0, result.locationsFailed);
+                assertEquals(0, result.rowsWritten);
+                Log.i(LOG_TAG, workers + " workers, unchanged: " + result);
+            } finally {
+                engine.shutdown();
+            }
+        }
+    }
+}
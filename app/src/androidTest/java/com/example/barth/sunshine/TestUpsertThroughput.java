@@ -0,0 +1,91 @@
+package com.example.barth.sunshine;
+
+import android.content.ContentValues;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+/**
+ * Rows per second written by {@link WeatherProvider#bulkInsert} for 100 locations,
+ * with 7, 16 and 365 days each. Every batch is written twice: the first pass inserts,
+ * the second one only finds unchanged rows.
+ */
+public class TestUpsertThroughput extends AndroidTestCase {
+    private static final String LOG_TAG = TestUpsertThroughput.class.getSimpleName();
+
+    private static final int LOCATION_COUNT = 100;
+    private static final long DAY_IN_MILLIS = 24L * 60 * 60 * 1000;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+    }
+
+    public void testUpsert7Days() {
+        runUpsert(7);
+    }
+
+    public void testUpsert16Days() {
+        runUpsert(16);
+    }
+
+    public void testUpsert365Days() {
+        runUpsert(365);
+    }
+
+    private void runUpsert(int numDays) {
+        ContentValues[][] batches = new ContentValues[LOCATION_COUNT][];
+        long start = System.currentTimeMillis();
+        for (int location = 0; location < LOCATION_COUNT; location++) {
+            batches[location] = new ContentValues[numDays];
+            for (int day = 0; day < numDays; day++) {
+                batches[location][day] = createWeatherValues(location + 1, start + day * DAY_IN_MILLIS, day);
+            }
+        }
+
+        long insertMs = writeAll(batches, numDays, numDays);
+        long unchangedMs = writeAll(batches, numDays, 0);
+
+        int rows = LOCATION_COUNT * numDays;
+        Log.i(LOG_TAG, numDays + " days x " + LOCATION_COUNT + " locations: insert "
+                + rows * 1000L / Math.max(1, insertMs) + " rows/s, unchanged upsert "
+                + rows * 1000L / Math.max(1, unchangedMs) + " rows/s");
+    }
+
+    private long writeAll(ContentValues[][] batches, int numDays, int expectedChanged) {
+        long start = SystemClock.elapsedRealtime();
+        for (ContentValues[] batch : batches) {
+            int changed = mContext.getContentResolver()
+                    .bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, batch);
+            assertEquals(expectedChanged, changed);
+        }
+        return SystemClock.elapsedRealtime() - start;
+    }
+
+    static ContentValues createWeatherValues(long locationId, long dateMillis, int day) {
+        ContentValues weatherValues = new ContentValues();
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                WeatherContract.toEpochDay(dateMillis));
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREE, 1.1);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, 1.2);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, 1.3);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 75 + day % 10);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, 65 - day % 10);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, "Asteroids");
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, 5.5);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, 321);
+        return weatherValues;
+    }
+}
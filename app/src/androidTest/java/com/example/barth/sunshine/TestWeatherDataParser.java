@@ -0,0 +1,119 @@
+package com.example.barth.sunshine;
+
+import android.test.AndroidTestCase;
+
+import org.json.JSONException;
+
+/**
+ * Checks that {@link WeatherDataParser#parseLazily}, whose scan finds the days without
+ * org.json, reads the same values as {@link WeatherDataParser#parse} and fails on the
+ * same bodies.
+ */
+public class TestWeatherDataParser extends AndroidTestCase {
+
+    private static final int DAY_COUNT = 7;
+
+    private static String buildDay(int i) {
+        return "{\"dt\":" + (1431000000L + i * 86400L) + ","
+                + "\"temp\":{\"day\":15.5,\"min\":" + (8.25 - i) + ",\"max\":" + (20.5 + i) + "},"
+                + "\"pressure\":" + (1012.5 + i) + ",\"humidity\":" + (60 + i) + ","
+                // Escaped quotes, an escaped backslash before a closing quote, and brackets.
+                + "\"weather\":[{\"id\":800,\"main\":\"Clear\","
+                + "\"description\":\"a \\\"clear\\\" sky [}\\\\\"}],"
+                + "\"speed\":" + (3.5 + i) + ",\"deg\":" + (10 * i) + "}";
+    }
+
+    /**
+     * A daily forecast body with a "list" string value and a nested "list" key ahead of
+     * the day array.
+     */
+    private static String buildBody() {
+        StringBuilder body = new StringBuilder();
+        body.append("{\"message\":\"list\",")
+                .append("\"city\":{\"name\":\"Mountain \\\"View\\\" {\",")
+                .append("\"list\":{\"list\":[1, 2]},\"coord\":{\"lon\":-122.08,\"lat\":37.39}},")
+                .append("\"cod\":\"200\",\"cnt\":").append(DAY_COUNT).append(",")
+                .append("\"list\" : [");
+        for (int i = 0; i < DAY_COUNT; i++) {
+            if (i > 0) {
+                body.append(",\n");
+            }
+            body.append(buildDay(i));
+        }
+        return body.append("]}").toString();
+    }
+
+    public void testLazyMatchesParse() throws JSONException {
+        String body = buildBody();
+        WeatherDataParser.Forecast forecast = WeatherDataParser.parse(body);
+        WeatherDataParser.LazyForecast lazy = WeatherDataParser.parseLazily(body);
+
+        assertEquals(DAY_COUNT, forecast.size());
+        assertEquals(DAY_COUNT, lazy.size());
+        // Backwards, so no day is decoded because its neighbour was.
+        for (int day = DAY_COUNT - 1; day >= 0; day--) {
+            assertEquals(forecast.getDateTime(day), lazy.getDateTime(day));
+            assertEquals(forecast.getMaxTemperature(day), lazy.getMaxTemperature(day));
+            assertEquals(forecast.getMinTemperature(day), lazy.getMinTemperature(day));
+            assertEquals(forecast.getHumidity(day), lazy.getHumidity(day));
+            assertEquals(forecast.getPressure(day), lazy.getPressure(day));
+            assertEquals(forecast.getWindSpeed(day), lazy.getWindSpeed(day));
+            assertEquals(forecast.getWindDirection(day), lazy.getWindDirection(day));
+            assertEquals(forecast.getMaxTemperature(day),
+                    WeatherDataParser.getMaxTemperatureForDay(body, day));
+        }
+        assertEquals(20.5 + 3, WeatherDataParser.getMaxTemperatureForDay(body, 3));
+    }
+
+    public void testEmptyList() throws JSONException {
+        String body = "{\"city\":{\"name\":\"Nowhere\"}, \"list\" : [ ] }";
+        assertEquals(0, WeatherDataParser.parse(body).size());
+        assertEquals(0, WeatherDataParser.parseLazily(body).size());
+    }
+
+    public void testIndexOutOfRange() {
+        String body = buildBody();
+        assertMaxTemperatureFails(body, DAY_COUNT);
+        assertMaxTemperatureFails(body, -1);
+    }
+
+    public void testListIsNotAnArray() {
+        assertBothFail("{\"list\":\"days\"}");
+        assertBothFail("{\"list\":{\"dt\":1431000000}}");
+        assertBothFail("{\"list\":5}");
+        // Only nested, or only a value.
+        assertBothFail("{\"city\":{\"list\":[" + buildDay(0) + "]}}");
+        assertBothFail("{\"message\":\"list\"}");
+    }
+
+    public void testTruncatedBody() {
+        String body = buildBody();
+        // In the list, in a day, in a string of a day, and right after the list opened.
+        assertBothFail(body.substring(0, body.length() - 2));
+        assertBothFail(body.substring(0, body.indexOf("\"speed\"", body.indexOf("\"list\" : ["))));
+        assertBothFail(body.substring(0, body.indexOf("clear", body.indexOf("\"list\" : ["))));
+        assertBothFail(body.substring(0, body.indexOf("\"list\" : [") + 10));
+    }
+
+    private static void assertBothFail(String body) {
+        try {
+            WeatherDataParser.parse(body);
+            fail("parse accepted " + body);
+        } catch (JSONException expected) {
+        }
+        try {
+            WeatherDataParser.parseLazily(body);
+            fail("parseLazily accepted " + body);
+        } catch (JSONException expected) {
+        }
+        assertMaxTemperatureFails(body, 0);
+    }
+
+    private static void assertMaxTemperatureFails(String body, int day) {
+        try {
+            WeatherDataParser.getMaxTemperatureForDay(body, day);
+            fail("Read day " + day + " of " + body);
+        } catch (JSONException expected) {
+        }
+    }
+}
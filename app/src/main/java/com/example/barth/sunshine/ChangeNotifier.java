@@ -0,0 +1,149 @@
+package com.example.barth.sunshine;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Debounces the change notifications of {@link WeatherProvider}.
+ *
+ * Uris reported within {@link #DEFAULT_WINDOW_MS} of the first one are merged and
+ * sent as a single notification on their deepest common parent, which every
+ * observer of any of them also listens to. Writes that changed no row are dropped.
+ */
+public class ChangeNotifier {
+    private static final String LOG_TAG = ChangeNotifier.class.getSimpleName();
+
+    public static final long DEFAULT_WINDOW_MS = 100;
+
+    private final ContentResolver mResolver;
+    private final long mWindowMs;
+    private final Handler mHandler;
+
+    private final Set<Uri> mPending = new LinkedHashSet<Uri>();
+    private boolean mScheduled = false;
+
+    private int mEmittedCount;
+    private int mCoalescedCount;
+    private int mEmptyWriteCount;
+
+    private final Runnable mFlush = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    public ChangeNotifier(ContentResolver resolver) {
+        this(resolver, DEFAULT_WINDOW_MS);
+    }
+
+    public ChangeNotifier(ContentResolver resolver, long windowMs) {
+        mResolver = resolver;
+        mWindowMs = windowMs;
+        mHandler = new Handler(Looper.getMainLooper());
+    }
+
+    /**
+     * Schedules a notification for {@code uri}, unless {@code rowsChanged} is 0.
+     */
+    public void notifyChange(Uri uri, int rowsChanged) {
+        synchronized (this) {
+            if (rowsChanged == 0) {
+                mEmptyWriteCount++;
+                return;
+            }
+            if (!mPending.add(uri)) {
+                mCoalescedCount++;
+            }
+            if (mScheduled) {
+                return;
+            }
+            mScheduled = true;
+        }
+        mHandler.postDelayed(mFlush, mWindowMs);
+    }
+
+    /**
+     * Sends what is pending right away.
+     */
+    public void flush() {
+        Uri target = null;
+        int merged;
+        synchronized (this) {
+            mHandler.removeCallbacks(mFlush);
+            mScheduled = false;
+            merged = mPending.size();
+            for (Uri uri : mPending) {
+                target = target == null ? stripQuery(uri) : commonParent(target, uri);
+            }
+            mPending.clear();
+            if (target == null) {
+                return;
+            }
+            mEmittedCount++;
+            mCoalescedCount += merged - 1;
+        }
+        if (merged > 1) {
+            Log.v(LOG_TAG, merged + " changes sent as " + target);
+        }
+        mResolver.notifyChange(target, null);
+    }
+
+    public synchronized int getEmittedCount() {
+        return mEmittedCount;
+    }
+
+    /**
+     * Notifications that were not sent: merged into another one, or for writes
+     * that changed nothing.
+     */
+    public synchronized int getSuppressedCount() {
+        return mCoalescedCount + mEmptyWriteCount;
+    }
+
+    public synchronized int getCoalescedCount() {
+        return mCoalescedCount;
+    }
+
+    public synchronized int getEmptyWriteCount() {
+        return mEmptyWriteCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ChangeNotifier[emitted=" + mEmittedCount + ", coalesced=" + mCoalescedCount
+                + ", emptyWrites=" + mEmptyWriteCount + "]";
+    }
+
+    private static Uri stripQuery(Uri uri) {
+        if (uri.getQuery() == null && uri.getFragment() == null) {
+            return uri;
+        }
+        return uri.buildUpon().clearQuery().fragment(null).build();
+    }
+
+    static Uri commonParent(Uri a, Uri b) {
+        Uri.Builder builder = new Uri.Builder()
+                .scheme(a.getScheme())
+                .authority(a.getAuthority());
+        if (a.getAuthority() == null || !a.getAuthority().equals(b.getAuthority())) {
+            // Never happens within one provider, fall back to the first one.
+            return a;
+        }
+
+        List<String> aSegments = a.getPathSegments();
+        List<String> bSegments = b.getPathSegments();
+        int count = Math.min(aSegments.size(), bSegments.size());
+        for (int i = 0; i < count && aSegments.get(i).equals(bSegments.get(i)); i++) {
+            builder.appendPath(aSegments.get(i));
+        }
+        return builder.build();
+    }
+}
@@ -0,0 +1,160 @@
+package com.example.barth.sunshine;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.SparseArray;
+
+/**
+ * Copy of the condition table, holding each short description once by weather id.
+ */
+public class ConditionDictionary {
+
+    private static final ConditionDictionary sInstance = new ConditionDictionary();
+
+    private static final String SQL_PUT_CONDITION = "INSERT OR REPLACE INTO " +
+            WeatherContract.ConditionEntry.TABLE_NAME + " (" +
+            WeatherContract.ConditionEntry._ID + ", " +
+            WeatherContract.ConditionEntry.COLUMN_SHORT_DESC + ") VALUES (?, ?)";
+
+    private final SparseArray<String> mDescriptions = new SparseArray<String>();
+    // Descriptions from ForecastSnapshot, only used until the table is loaded.
+    private final SparseArray<String> mProvisional = new SparseArray<String>();
+    private boolean mLoaded;
+    // See LocationIdCache.Pending.
+    private int mGeneration = 0;
+
+    public static ConditionDictionary getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * @return the short description of {@code weatherId}, or an empty string when the
+     * condition is unknown.
+     */
+    public synchronized String getDescription(int weatherId) {
+        String description = mDescriptions.get(weatherId);
+        if (description == null) {
+            description = mProvisional.get(weatherId);
+        }
+        return description == null ? "" : description;
+    }
+
+    /**
+     * Lends a description read outside of the database, until the table is loaded.
+     */
+    public synchronized void putProvisional(int weatherId, String description) {
+        if (!mLoaded) {
+            mProvisional.put(weatherId, description);
+        }
+    }
+
+    public synchronized int size() {
+        return mDescriptions.size();
+    }
+
+    /**
+     * Forgets every entry, the table is read again by the next {@link #ensureLoaded}.
+     */
+    public synchronized void invalidate() {
+        mDescriptions.clear();
+        mLoaded = false;
+        mGeneration++;
+    }
+
+    /**
+     * Loads the condition table, unless it already was.
+     */
+    void ensureLoaded(SQLiteDatabase db) {
+        int generation;
+        synchronized (this) {
+            if (mLoaded) {
+                return;
+            }
+            generation = mGeneration;
+        }
+
+        SparseArray<String> descriptions = new SparseArray<String>();
+        Cursor cursor = db.query(WeatherContract.ConditionEntry.TABLE_NAME,
+                new String[]{WeatherContract.ConditionEntry._ID,
+                        WeatherContract.ConditionEntry.COLUMN_SHORT_DESC},
+                null, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                descriptions.put(cursor.getInt(0), cursor.getString(1));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        synchronized (this) {
+            if (!mLoaded && generation == mGeneration) {
+                // Entries written meanwhile are at least as recent.
+                for (int i = 0; i < mDescriptions.size(); i++) {
+                    descriptions.put(mDescriptions.keyAt(i), mDescriptions.valueAt(i));
+                }
+                mDescriptions.clear();
+                for (int i = 0; i < descriptions.size(); i++) {
+                    mDescriptions.put(descriptions.keyAt(i), descriptions.valueAt(i));
+                }
+                mLoaded = true;
+                mProvisional.clear();
+            }
+        }
+    }
+
+    /**
+     * Compiled writer of condition rows, meant to live for one transaction. What it
+     * writes only reaches the dictionary through {@link #publish()}, once committed.
+     */
+    static class Writer {
+        private final SQLiteDatabase mDb;
+        private SQLiteStatement mPut;
+        private final SparseArray<String> mWritten = new SparseArray<String>();
+
+        Writer(SQLiteDatabase db) {
+            mDb = db;
+        }
+
+        /**
+         * Stores {@code description} for {@code weatherId} unless it is already known.
+         */
+        void put(int weatherId, String description) {
+            if (description.equals(mWritten.get(weatherId))) {
+                return;
+            }
+            ConditionDictionary dictionary = getInstance();
+            synchronized (dictionary) {
+                if (description.equals(dictionary.mDescriptions.get(weatherId))) {
+                    return;
+                }
+            }
+
+            if (mPut == null) {
+                mPut = mDb.compileStatement(SQL_PUT_CONDITION);
+            }
+            mPut.bindLong(1, weatherId);
+            mPut.bindString(2, description);
+            mPut.executeInsert();
+            mWritten.put(weatherId, description);
+        }
+
+        /**
+         * Hands the written conditions to the dictionary, after the commit.
+         */
+        void publish() {
+            ConditionDictionary dictionary = getInstance();
+            synchronized (dictionary) {
+                for (int i = 0; i < mWritten.size(); i++) {
+                    dictionary.mDescriptions.put(mWritten.keyAt(i), mWritten.valueAt(i));
+                }
+            }
+        }
+
+        void close() {
+            if (mPut != null) {
+                mPut.close();
+            }
+        }
+    }
+}
@@ -1,8 +1,13 @@
 package com.example.barth.sunshine;
 
 import android.content.Intent;
+import android.database.Cursor;
+import android.net.Uri;
 import android.os.Bundle;
 import android.support.v4.app.Fragment;
+import android.support.v4.app.LoaderManager;
+import android.support.v4.content.CursorLoader;
+import android.support.v4.content.Loader;
 import android.support.v4.view.MenuItemCompat;
 import android.support.v7.app.ActionBarActivity;
 import android.support.v7.widget.ShareActionProvider;
@@ -61,14 +66,33 @@ public class DetailActivity extends ActionBarActivity {
     }
 
     /**
-     * A placeholder fragment containing a simple view.
+     * Shows the forecast of the day whose uri started the activity.
      */
-    public static class DetailFragment extends  Fragment {
+    public static class DetailFragment extends  Fragment implements LoaderManager.LoaderCallbacks<Cursor> {
         private ShareActionProvider mShareActionProvider;
 
         private static final String LOG_TAG = DetailFragment.class.getSimpleName();
         private static final String FORECAST_SHARE_HASHTAG = " #SunshineApp";
+
+        private static final int DETAIL_LOADER = 0;
+
+        static final String[] DETAIL_COLUMNS = {
+                WeatherContract.WeatherEntry.TABLE_NAME + "." + WeatherContract.WeatherEntry._ID,
+                WeatherContract.WeatherEntry.COLUMN_DATE,
+                WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+                WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+                WeatherContract.WeatherEntry.COLUMN_MIN_TEMP
+        };
+
+        // These indices are tied to DETAIL_COLUMNS.
+        private static final int COL_WEATHER_DATE = 1;
+        private static final int COL_WEATHER_CONDITION_ID = 2;
+        private static final int COL_WEATHER_MAX_TEMP = 3;
+        private static final int COL_WEATHER_MIN_TEMP = 4;
+
         String mForecast;
+        private TextView mDetailView;
+
         public DetailFragment() {
             setHasOptionsMenu(true);
         }
@@ -84,12 +108,16 @@ public class DetailActivity extends ActionBarActivity {
         public View onCreateView(LayoutInflater inflater, ViewGroup container,
                                  Bundle savedInstanceState) {
             View rootView = inflater.inflate(R.layout.fragment_detail, container, false);
-            Intent intent = getActivity().getIntent();
-            mForecast = intent.getStringExtra(Intent.EXTRA_TEXT);
-            ((TextView) rootView.findViewById(R.id.detail_text)).setText(mForecast);
+            mDetailView = (TextView) rootView.findViewById(R.id.detail_text);
             return rootView;
         }
 
+        @Override
+        public void onActivityCreated(Bundle savedInstanceState) {
+            getLoaderManager().initLoader(DETAIL_LOADER, null, this);
+            super.onActivityCreated(savedInstanceState);
+        }
+
         @Override
         public void onCreateOptionsMenu(Menu menu, MenuInflater inflater) {
             inflater.inflate(R.menu.detailfragment,menu);
@@ -98,12 +126,46 @@ public class DetailActivity extends ActionBarActivity {
             mShareActionProvider = (ShareActionProvider) MenuItemCompat.getActionProvider(shareItem);
 
             if(mShareActionProvider != null){
-                mShareActionProvider.setShareIntent(createShareForecastIntent());
+                if (mForecast != null) {
+                    mShareActionProvider.setShareIntent(createShareForecastIntent());
+                }
             }else{
                 Log.d(LOG_TAG,"Share action provider is null?");
             }
 
 
         }
+
+        @Override
+        public Loader<Cursor> onCreateLoader(int id, Bundle args) {
+            Uri uri = getActivity().getIntent().getData();
+            if (uri == null) {
+                return null;
+            }
+            return new CursorLoader(getActivity(), uri, DETAIL_COLUMNS, null, null, null);
+        }
+
+        @Override
+        public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
+            if (!data.moveToFirst()) {
+                return;
+            }
+
+            mForecast = Utility.getReadableDateString(getActivity(), data.getLong(COL_WEATHER_DATE))
+                    + " - " + ConditionDictionary.getInstance()
+                            .getDescription(data.getInt(COL_WEATHER_CONDITION_ID))
+                    + " - " + Utility.formatHighLows(getActivity(),
+                            data.getDouble(COL_WEATHER_MAX_TEMP),
+                            data.getDouble(COL_WEATHER_MIN_TEMP));
+            mDetailView.setText(mForecast);
+
+            if (mShareActionProvider != null) {
+                mShareActionProvider.setShareIntent(createShareForecastIntent());
+            }
+        }
+
+        @Override
+        public void onLoaderReset(Loader<Cursor> loader) {
+        }
     }
 }
@@ -0,0 +1,190 @@
+package com.example.barth.sunshine;
+
+import android.content.Context;
+import android.os.AsyncTask;
+import android.util.Log;
+
+import java.util.Collections;
+import java.util.HashMap;
+
+/**
+ * Runs the single location refreshes started by the UI, at most one per location.
+ *
+ * A refresh asked for while the same location is already being fetched joins the running
+ * fetch instead of starting another. Every caller gets its own {@link Handle}, and the
+ * fetch is cancelled once all of them have cancelled theirs. Cancellation is cooperative:
+ * {@link FetchWeatherTask} stops at the next read from the socket, the next parsed day or
+ * before its commit, and the work it did not do is counted in the metrics.
+ */
+public class FetchCoordinator {
+    private static final String LOG_TAG = FetchCoordinator.class.getSimpleName();
+
+    private static final FetchCoordinator sInstance = new FetchCoordinator();
+
+    public static FetchCoordinator getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * One fetch of one location, shared by every {@link Handle} that joined it.
+     */
+    static class Request implements ForecastFetcher.Cancellation {
+        final String locationSetting;
+        private int mClients = 1;
+        private boolean mCancelled;
+        // Set once the task has seen the cancellation, the request can no longer be joined.
+        private boolean mAborted;
+
+        Request(String locationSetting) {
+            this.locationSetting = locationSetting;
+        }
+
+        @Override
+        public synchronized boolean isCancelled() {
+            if (mCancelled) {
+                mAborted = true;
+            }
+            return mCancelled;
+        }
+
+        synchronized boolean join() {
+            if (mAborted) {
+                return false;
+            }
+            // A fetch cancelled by its last client but not stopped yet is revived.
+            mCancelled = false;
+            mClients++;
+            return true;
+        }
+
+        synchronized void release() {
+            if (--mClients == 0) {
+                mCancelled = true;
+            }
+        }
+    }
+
+    /**
+     * What a caller holds on a request, to cancel its interest in it.
+     */
+    public class Handle {
+        private final Request mRequest;
+        private boolean mReleased;
+
+        Handle(Request request) {
+            mRequest = request;
+        }
+
+        public String getLocationSetting() {
+            return mRequest.locationSetting;
+        }
+
+        /**
+         * Gives up on the refresh. It goes on while other handles are still interested.
+         */
+        public void cancel() {
+            synchronized (FetchCoordinator.this) {
+                if (mReleased) {
+                    return;
+                }
+                mReleased = true;
+            }
+            mRequest.release();
+        }
+    }
+
+    private final HashMap<String, Request> mInFlight = new HashMap<String, Request>();
+
+    private long mRequestsStarted;
+    private long mRequestsJoined;
+    private long mRequestsCancelled;
+    private long mBytesNotRead;
+    private long mRowsNotWritten;
+
+    FetchCoordinator() {
+    }
+
+    /**
+     * Refreshes {@code locationSetting} if it is stale, or anyway with {@code force}.
+     *
+     * @return the handle on the refresh, or null when nothing had to be fetched or the
+     * location is being refreshed elsewhere, such as by {@link WeatherRefreshEngine}.
+     */
+    public Handle submit(Context context, String locationSetting, boolean force) {
+        Request request;
+        synchronized (this) {
+            request = mInFlight.get(locationSetting);
+            if (request != null) {
+                if (!request.join()) {
+                    // Stopping but not finished yet, it still holds the in-flight mark.
+                    return null;
+                }
+                mRequestsJoined++;
+                return new Handle(request);
+            }
+            if (RefreshPolicy.getInstance(context)
+                    .begin(Collections.singleton(locationSetting), force).isEmpty()) {
+                return null;
+            }
+            request = new Request(locationSetting);
+            mInFlight.put(locationSetting, request);
+            mRequestsStarted++;
+        }
+        new FetchWeatherTask(context, request)
+                .executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        return new Handle(request);
+    }
+
+    /**
+     * Called by the task of {@code request} once it is done, whatever the outcome.
+     */
+    void finish(Context context, Request request) {
+        synchronized (this) {
+            if (mInFlight.get(request.locationSetting) == request) {
+                mInFlight.remove(request.locationSetting);
+            }
+        }
+        RefreshPolicy.getInstance(context).end(request.locationSetting);
+    }
+
+    /**
+     * Records a fetch stopped by its cancellation.
+     *
+     * @param bytesNotRead bytes of the body left unread, 0 when unknown.
+     * @param rowsNotWritten parsed days dropped instead of being committed.
+     */
+    synchronized void recordCancelled(long bytesNotRead, int rowsNotWritten) {
+        mRequestsCancelled++;
+        mBytesNotRead += bytesNotRead;
+        mRowsNotWritten += rowsNotWritten;
+        Log.v(LOG_TAG, "Cancelled fetch skipped " + bytesNotRead + " bytes and "
+                + rowsNotWritten + " rows");
+    }
+
+    public synchronized long getRequestsStarted() {
+        return mRequestsStarted;
+    }
+
+    public synchronized long getRequestsJoined() {
+        return mRequestsJoined;
+    }
+
+    public synchronized long getRequestsCancelled() {
+        return mRequestsCancelled;
+    }
+
+    public synchronized long getBytesNotRead() {
+        return mBytesNotRead;
+    }
+
+    public synchronized long getRowsNotWritten() {
+        return mRowsNotWritten;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return mRequestsStarted + " fetches started, " + mRequestsJoined + " joined, "
+                + mRequestsCancelled + " cancelled, saving " + mBytesNotRead + " bytes and "
+                + mRowsNotWritten + " rows";
+    }
+}
@@ -5,342 +5,84 @@ package com.example.barth.sunshine;
  */
 
 import android.annotation.TargetApi;
-import android.content.ContentUris;
-import android.content.ContentValues;
 import android.content.Context;
-import android.content.SharedPreferences;
-import android.database.Cursor;
-import android.net.Uri;
 import android.os.AsyncTask;
-import android.preference.PreferenceManager;
+import android.os.Bundle;
 import android.util.Log;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.Vector;
 
 /**
  * Created by barth on 10/05/15.
  *
+ * Fetches and stores one location for {@link FetchCoordinator}, which owns its
+ * cancellation. Only the application context is kept, never the activity.
  */
 @TargetApi(16)
-public class FetchWeatherTask extends AsyncTask<String,Void,String[]> {
+public class FetchWeatherTask extends AsyncTask<Void,Void,Void> {
     private final String  LOG_TAG =FetchWeatherTask.class.getSimpleName();
 
     private final Context mContext;
+    private final FetchCoordinator.Request mRequest;
 
 
-    public FetchWeatherTask(Context context,ForecastFragment forecastFragment) {
-        mContext = context;
-
-    }
-
-    private String getReadableDateString(long time){
-        // Because the API returns a unix timestamp (measured in seconds),
-        // it must be converted to milliseconds in order to be converted to valid date.
-        SimpleDateFormat shortenedDateFormat = new SimpleDateFormat("EEE MMM dd");
-        return shortenedDateFormat.format(time);
+    FetchWeatherTask(Context context, FetchCoordinator.Request request) {
+        mContext = context.getApplicationContext();
+        mRequest = request;
     }
 
     /**
-     * Prepare the weather high/lows for presentation.
+     * Hands the parsed forecast to a single {@link WeatherContract#METHOD_INGEST} call, so
+     * the whole refresh is one transaction and one change notification.
+     *
+     * @throws IOException when the forecast has no city, nothing can be stored then and
+     * the validators of the response must not be kept.
      */
-    private String formatHighLows(double high, double low) {
-
-        SharedPreferences sharedPrefs = PreferenceManager.getDefaultSharedPreferences(mContext);
-        String unitType = sharedPrefs.getString(mContext.getString(R.string.pref_units_key),
-                mContext.getString(R.string.pref_units_metric));
-
-        if(unitType.equals(mContext.getString(R.string.prefs_units_imperial))) {
-            high = (high * 1.8 ) + 32;
-            low = (low * 1.8) + 32;
-        }else if(!unitType.equals(R.string.pref_units_metric)){
-            Log.d(LOG_TAG, "Unit type not found  :" + unitType);
+    private int ingest(ForecastBatch batch) throws IOException {
+        if (batch.getCityName() == null) {
+            throw new IOException("No city in forecast for " + batch.getLocationSetting()
+                    + ", dropping " + batch.size() + " days");
         }
-        // For presentation, assume the user doesn't care about tenths of a degree.
-        long roundedHigh = Math.round(high);
-        long roundedLow = Math.round(low);
-
-        String highLowStr = roundedHigh + "/" + roundedLow;
-        return highLowStr;
-    }
-
-    private void getWeatherDataFromJson(String forecastJsonStr, int numDays,String locationSetting)
-            throws JSONException {
-
-
-        // Location information
-        final String OWM_CITY = "city";
-        final String OWM_CITY_NAME = "name";
-        final String OWM_COORD = "coord";
-        final String OWM_COORD_LAT = "lat";
-        final String OWM_COORD_LONG = "lon";
-
-        // These are the names of the JSON objects that need to be extracted.
-
-        final String OWM_LIST = "list";
-
-        final String OWM_DATETIME = "dt";
-        final String OWM_PRESSURE = "pressure";
-        final String OWM_HUMIDITY = "humidity";
-
-        final String OWM_WINDSPEED = "speed";
-
-        final String OWM_WIND_DIRECTION = "deg";
-
-        // All temperatures are children of the "temp" object.
-        final String OWM_TEMPERATURE = "temp";
-        final String OWM_MAX = "max";
-        final String OWM_MIN = "min";
-
-        final String OWM_WEATHER = "weather";
-        final String OWM_DESCRIPTION = "main";
-        final String OWM_WEATHER_ID = "id";
-
-        JSONObject forecastJson = new JSONObject(forecastJsonStr);
-        JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
-
-        JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
-        String cityName = cityJson.getString(OWM_CITY_NAME);
-        JSONObject coordJSON = cityJson.getJSONObject(OWM_COORD);
-        double cityLatitude = coordJSON.getLong(OWM_COORD_LAT);
-        double cityLongitude = coordJSON.getLong(OWM_COORD_LONG);
-
-
-        // OWM returns daily forecasts based upon the local time of the city that is being
-        // asked for, which means that we need to know the GMT offset to translate this data
-        // properly.
-
-        // Since this data is also sent in-order and the first day is always the
-        // current day, we're going to take advantage of that to get a nice
-        // normalized UTC date for all of our weather.
-
-        long locationID = insertLocationInDatabase(locationSetting,cityName,cityLatitude,cityLongitude);
-
-
-        Vector<ContentValues> cVVector = new Vector<ContentValues>(weatherArray.length());
-
-        //Time dayTime = new Time();
-        //dayTime.setToNow();
-
-        // we start at the day returned by local time. Otherwise this is a mess.
-        //int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
-
-        // now we work exclusively in UTC
-        //  dayTime = new Time();
-
-        String[] resultStrs = new String[numDays];
-        for(int i = 0; i < weatherArray.length(); i++) {
-            // For now, using the format "Day, description, hi/low"
-            String day;
-            String description;
-            String highAndLow;
-            double pressure;
-            int humidity;
-            double windSpeed;
-            double windDirection;
-            int weatherId;
-
-
-            // Get the JSON object representing the day
-            JSONObject dayForecast = weatherArray.getJSONObject(i);
-
-            // The date/time is returned as a long.  We need to convert that
-            // into something human-readable, since most people won't read "1400356800" as
-            // "this saturday".
-            long dateTime;
-            // Cheating to convert this to UTC time, which is what we want anyhow
-            dateTime = dayForecast.getLong(OWM_DATETIME);
-            pressure = dayForecast.getDouble(OWM_PRESSURE);
-            humidity = dayForecast.getInt(OWM_HUMIDITY);
-            windSpeed = dayForecast.getDouble(OWM_WINDSPEED);
-            windDirection = dayForecast.getDouble(OWM_WIND_DIRECTION);
-
-
-            // day = getReadableDateString(dateTime);
-
-            // description is in a child array called "weather", which is 1 element long.
-            JSONObject weatherObject =
-                    dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
-            description = weatherObject.getString(OWM_DESCRIPTION);
-            weatherId = weatherObject.getInt(OWM_WEATHER_ID);
-
-
-            // Temperatures are in a child object called "temp".  Try not to name variables
-            // "temp" when working with temperature.  It confuses everybody.
-            JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
-            double high = temperatureObject.getDouble(OWM_MAX);
-            double low = temperatureObject.getDouble(OWM_MIN);
-
-            ContentValues weatherValues = new ContentValues();
-
-            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationID);
-            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE,
-                    WeatherContract.getDbDateString(new Date(dateTime * 1000L)));
-            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidity);
-            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressure);
-            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
-            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREE, windDirection);
-            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high);
-            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, low);
-            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, description);
-            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
-
-            cVVector.add(weatherValues);
-        }
-
-        if (cVVector.size() > 0) {
-            ContentValues[] cvArray = new ContentValues[cVVector.size()];
-            cVVector.toArray(cvArray);
-            mContext.getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, cvArray);
-        }
-
 
+        Bundle extras = new Bundle();
+        extras.putParcelableArray(WeatherContract.EXTRA_BATCHES, new ForecastBatch[]{batch});
+        Bundle result = mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_INGEST, null, extras);
+        return result.getInt(WeatherContract.EXTRA_ROWS_CHANGED);
     }
 
     @Override
-    protected String [] doInBackground(String... params) {
-
-        if(params.length == 0){
-            return null;
-        }
-        HttpURLConnection urlConnection = null;
-        BufferedReader reader = null;
-        String forecastJsonStr = null;
-
-        String format = "json";
-        String units = "metric";
-        int numDays = 7;
-
+    protected Void doInBackground(Void... params) {
+        String locationSetting = mRequest.locationSetting;
+        FetchCoordinator coordinator = FetchCoordinator.getInstance();
+        ForecastBatch batch = new ForecastBatch(locationSetting);
+        ForecastFetcher.TransferStats stats = new ForecastFetcher.TransferStats();
         try {
-            final String FORECAST_BASE_URL =
-                    "http://api.openweathermap.org/data/2.5/forecast/daily?";
-            final String QUERY_PARAM = "q";
-            final String FORMAT_PARAM = "mode";
-            final String UNITS_PARAM = "units";
-            final String DAYS_PARAM = "cnt";
-
-            Uri builtUri = Uri.parse(FORECAST_BASE_URL).buildUpon()
-                    .appendQueryParameter(QUERY_PARAM, params[0])
-                    .appendQueryParameter(FORMAT_PARAM, format)
-                    .appendQueryParameter(UNITS_PARAM, units)
-                    .appendQueryParameter(DAYS_PARAM, Integer.toString(numDays))
-                    .build();
-            URL url = new URL(builtUri.toString());
-
-            Log.v(LOG_TAG, "Built URI " + builtUri.toString());
-
-
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setRequestMethod("GET");
-            urlConnection.connect();
-
-            InputStream inputStream = urlConnection.getInputStream();
-            StringBuffer buffer = new StringBuffer();
-            if (inputStream == null) {
-                Log.v("NULL", " INPUT STREAM BUFFER NULL");
-                return null;
-            }
-
-            reader = new BufferedReader(new InputStreamReader(inputStream));
-
-            String line;
-            while ((line = reader.readLine()) != null) {
-                buffer.append(line + "\n");
-
-            }
-
-            if (buffer.length() == 0) {
-                Log.v("NULL", "BUFFER NULL");
-                return null;
+            ForecastFetcher fetcher =
+                    new ForecastFetcher(ForecastResponseCache.getInstance(mContext));
+            if (fetcher.fetch(locationSetting, batch, stats, mRequest)) {
+                if (mRequest.isCancelled()) {
+                    coordinator.recordCancelled(0, batch.size());
+                    return null;
+                }
+                int inserted = ingest(batch);
+                fetcher.commit(locationSetting);
+                Log.v(LOG_TAG, "Stored " + inserted + " changed days for " + locationSetting + ", " + stats);
+            } else {
+                Log.v(LOG_TAG, "Forecast for " + locationSetting + " is up to date");
             }
-            forecastJsonStr = buffer.toString();
-            Log.v(LOG_TAG, " forecast json " + forecastJsonStr);
+            RefreshPolicy.getInstance(mContext).recordSuccess(locationSetting, System.currentTimeMillis());
+        } catch (ForecastFetcher.CancelledException e) {
+            // The body is read from the socket before it is decoded, compare raw counts.
+            long bytesNotRead = stats.expectedBytes > 0
+                    ? Math.max(0, stats.expectedBytes - stats.transferredBytes) : 0;
+            coordinator.recordCancelled(bytesNotRead, batch.size());
         } catch (IOException e) {
             Log.e(LOG_TAG, "Error", e);
-
-            return null;
-
         } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
-            }
-            if (reader != null) {
-                try {
-                    reader.close();
-                } catch (final IOException e) {
-                    Log.e(LOG_TAG, "Error closing stream", e);
-
-                }
-            }
-
-        }
-        try {
-            return null;
-        } catch (Exception e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
+            coordinator.finish(mContext, mRequest);
         }
 
         return  null;
     }
-
-    private long insertLocationInDatabase(String locationSetting, String cityName, double lat, double lon) {
-        long locationId = 0;
-
-        // First check if the location with this city name exists in the db
-        Cursor cursor = mContext.getContentResolver().query(
-                WeatherContract.LocationEntry.CONTENT_URI,
-                new String[] {WeatherContract.LocationEntry._ID},
-                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
-                new String[] {locationSetting},
-                null,
-                null
-        );
-
-        if ( cursor.moveToFirst()) {
-
-            int locationIdIndex =  cursor.getColumnIndex(WeatherContract.LocationEntry._ID);
-            locationId = cursor.getLong(locationIdIndex);
-
-        } else {
-
-            ContentValues locationValues = new ContentValues();
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, cityName);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
-
-            Uri uri = mContext.getContentResolver().insert(WeatherContract.LocationEntry.CONTENT_URI, locationValues);
-            locationId = ContentUris.parseId(uri);
-
-        }
-
-        if (cursor != null) {
-            cursor.close();
-        }
-
-        return locationId;
-    }
-
-
-    // @Override
-  /*  protected void onPostExecute(String[] result) {
-        if(result != null){
-            mForecastFragment.getmForecastAdapter().clear();
-            for(String dayForecastStr : result){
-                mForecastFragment.getmForecastAdapter().add(dayForecastStr);
-            }
-        }
-    }*/
 }
@@ -0,0 +1,63 @@
+package com.example.barth.sunshine;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.support.v4.widget.CursorAdapter;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+/**
+ * Binds the rows of a {@link ForecastFragment#FORECAST_COLUMNS} cursor to the list.
+ * Rows are only formatted when a view is bound, so the cost follows what is on
+ * screen rather than the length of the forecast.
+ */
+public class ForecastAdapter extends CursorAdapter {
+
+    /**
+     * Cache of the children views for a forecast list item.
+     */
+    static class ViewHolder {
+        final TextView dateView;
+        final TextView descriptionView;
+        final TextView highLowView;
+        final char[] highLowBuffer = new char[ForecastFormatter.HIGH_LOW_BUFFER_SIZE];
+
+        ViewHolder(View view) {
+            dateView = (TextView) view.findViewById(R.id.list_item_date_textview);
+            descriptionView = (TextView) view.findViewById(R.id.list_item_forecast_textview);
+            highLowView = (TextView) view.findViewById(R.id.list_item_high_low_textview);
+        }
+    }
+
+    private final ForecastFormatter mFormatter;
+
+    public ForecastAdapter(Context context, Cursor c, int flags) {
+        super(context, c, flags);
+        mFormatter = ForecastFormatter.getInstance(context);
+    }
+
+    @Override
+    public View newView(Context context, Cursor cursor, ViewGroup parent) {
+        View view = LayoutInflater.from(context).inflate(R.layout.list_item_forecast, parent, false);
+        view.setTag(new ViewHolder(view));
+        return view;
+    }
+
+    @Override
+    public void bindView(View view, Context context, Cursor cursor) {
+        ViewHolder viewHolder = (ViewHolder) view.getTag();
+
+        viewHolder.dateView.setText(
+                mFormatter.formatDate(cursor.getLong(ForecastFragment.COL_WEATHER_DATE)));
+        viewHolder.descriptionView.setText(ConditionDictionary.getInstance()
+                .getDescription(cursor.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID)));
+        // The TextView copies nothing, it keeps a wrapper around the holder's buffer.
+        int length = mFormatter.formatHighLows(
+                cursor.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP),
+                cursor.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP),
+                viewHolder.highLowBuffer);
+        viewHolder.highLowView.setText(viewHolder.highLowBuffer, 0, length);
+    }
+}
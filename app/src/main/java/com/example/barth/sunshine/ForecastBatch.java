@@ -0,0 +1,258 @@
+package com.example.barth.sunshine;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Forecast of one location, column by column.
+ *
+ * Every weather column is a primitive array indexed by day, and the short
+ * descriptions, which repeat a lot, are kept once each in a string table. Filling a
+ * batch from {@link ForecastJsonParser} boxes nothing and allocates no map per day,
+ * and {@link WeatherProvider} binds the arrays straight into its compiled statements.
+ */
+public final class ForecastBatch implements ForecastJsonParser.Callback, Parcelable {
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private final String mLocationSetting;
+    private String mCityName;
+    private double mLat;
+    private double mLon;
+
+    private int mSize;
+    private long[] mDates;
+    private double[] mMinTemps;
+    private double[] mMaxTemps;
+    private double[] mHumidities;
+    private double[] mPressures;
+    private double[] mWindSpeeds;
+    private double[] mDegrees;
+    private int[] mWeatherIds;
+    private int[] mDescriptionIndexes;
+
+    private String[] mDescriptions;
+    private int mDescriptionCount;
+    // Built on the first added day, a batch read from a parcel usually never needs it.
+    private HashMap<String, Integer> mDescriptionLookup;
+
+    public ForecastBatch(String locationSetting) {
+        this(locationSetting, DEFAULT_CAPACITY);
+    }
+
+    public ForecastBatch(String locationSetting, int capacity) {
+        mLocationSetting = locationSetting;
+        allocate(capacity);
+        mDescriptions = new String[4];
+    }
+
+    private void allocate(int capacity) {
+        mDates = new long[capacity];
+        mMinTemps = new double[capacity];
+        mMaxTemps = new double[capacity];
+        mHumidities = new double[capacity];
+        mPressures = new double[capacity];
+        mWindSpeeds = new double[capacity];
+        mDegrees = new double[capacity];
+        mWeatherIds = new int[capacity];
+        mDescriptionIndexes = new int[capacity];
+    }
+
+    @Override
+    public void onCity(String cityName, double lat, double lon) {
+        mCityName = cityName;
+        mLat = lat;
+        mLon = lon;
+    }
+
+    /**
+     * Appends a copy of {@code day}, whose date becomes an epoch day.
+     */
+    @Override
+    public void onDay(ForecastJsonParser.Day day) {
+        if (mSize == mDates.length) {
+            grow();
+        }
+        int i = mSize++;
+        // The API returns a unix timestamp (measured in seconds).
+        mDates[i] = WeatherContract.toEpochDay(day.dateTime * 1000L);
+        mMinTemps[i] = day.low;
+        mMaxTemps[i] = day.high;
+        mHumidities[i] = day.humidity;
+        mPressures[i] = day.pressure;
+        mWindSpeeds[i] = day.windSpeed;
+        mDegrees[i] = day.windDirection;
+        mWeatherIds[i] = day.weatherId;
+        mDescriptionIndexes[i] = internDescription(day.description);
+    }
+
+    private void grow() {
+        int capacity = Math.max(DEFAULT_CAPACITY, mDates.length * 2);
+        mDates = Arrays.copyOf(mDates, capacity);
+        mMinTemps = Arrays.copyOf(mMinTemps, capacity);
+        mMaxTemps = Arrays.copyOf(mMaxTemps, capacity);
+        mHumidities = Arrays.copyOf(mHumidities, capacity);
+        mPressures = Arrays.copyOf(mPressures, capacity);
+        mWindSpeeds = Arrays.copyOf(mWindSpeeds, capacity);
+        mDegrees = Arrays.copyOf(mDegrees, capacity);
+        mWeatherIds = Arrays.copyOf(mWeatherIds, capacity);
+        mDescriptionIndexes = Arrays.copyOf(mDescriptionIndexes, capacity);
+    }
+
+    private int internDescription(String description) {
+        // The column is NOT NULL.
+        if (description == null) {
+            description = "";
+        }
+        if (mDescriptionLookup == null) {
+            mDescriptionLookup = new HashMap<String, Integer>();
+            for (int i = 0; i < mDescriptionCount; i++) {
+                mDescriptionLookup.put(mDescriptions[i], i);
+            }
+        }
+        Integer index = mDescriptionLookup.get(description);
+        if (index != null) {
+            return index;
+        }
+        if (mDescriptionCount == mDescriptions.length) {
+            mDescriptions = Arrays.copyOf(mDescriptions, Math.max(4, mDescriptionCount * 2));
+        }
+        mDescriptions[mDescriptionCount] = description;
+        mDescriptionLookup.put(description, mDescriptionCount);
+        return mDescriptionCount++;
+    }
+
+    public String getLocationSetting() {
+        return mLocationSetting;
+    }
+
+    /**
+     * @return the city name, or null when the payload had no city.
+     */
+    public String getCityName() {
+        return mCityName;
+    }
+
+    public double getLat() {
+        return mLat;
+    }
+
+    public double getLon() {
+        return mLon;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public long getDate(int day) {
+        return mDates[day];
+    }
+
+    public double getMinTemp(int day) {
+        return mMinTemps[day];
+    }
+
+    public double getMaxTemp(int day) {
+        return mMaxTemps[day];
+    }
+
+    public double getHumidity(int day) {
+        return mHumidities[day];
+    }
+
+    public double getPressure(int day) {
+        return mPressures[day];
+    }
+
+    public double getWindSpeed(int day) {
+        return mWindSpeeds[day];
+    }
+
+    public double getDegree(int day) {
+        return mDegrees[day];
+    }
+
+    public int getWeatherId(int day) {
+        return mWeatherIds[day];
+    }
+
+    public String getShortDesc(int day) {
+        return mDescriptions[mDescriptionIndexes[day]];
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeString(mLocationSetting);
+        dest.writeString(mCityName);
+        dest.writeDouble(mLat);
+        dest.writeDouble(mLon);
+
+        dest.writeInt(mDescriptionCount);
+        for (int i = 0; i < mDescriptionCount; i++) {
+            dest.writeString(mDescriptions[i]);
+        }
+
+        // Only the filled part of the arrays, element by element to avoid trimmed copies.
+        dest.writeInt(mSize);
+        for (int i = 0; i < mSize; i++) {
+            dest.writeLong(mDates[i]);
+            dest.writeDouble(mMinTemps[i]);
+            dest.writeDouble(mMaxTemps[i]);
+            dest.writeDouble(mHumidities[i]);
+            dest.writeDouble(mPressures[i]);
+            dest.writeDouble(mWindSpeeds[i]);
+            dest.writeDouble(mDegrees[i]);
+            dest.writeInt(mWeatherIds[i]);
+            dest.writeInt(mDescriptionIndexes[i]);
+        }
+    }
+
+    private ForecastBatch(Parcel in) {
+        mLocationSetting = in.readString();
+        mCityName = in.readString();
+        mLat = in.readDouble();
+        mLon = in.readDouble();
+
+        mDescriptionCount = in.readInt();
+        mDescriptions = new String[mDescriptionCount];
+        for (int i = 0; i < mDescriptionCount; i++) {
+            mDescriptions[i] = in.readString();
+        }
+
+        mSize = in.readInt();
+        allocate(mSize);
+        for (int i = 0; i < mSize; i++) {
+            mDates[i] = in.readLong();
+            mMinTemps[i] = in.readDouble();
+            mMaxTemps[i] = in.readDouble();
+            mHumidities[i] = in.readDouble();
+            mPressures[i] = in.readDouble();
+            mWindSpeeds[i] = in.readDouble();
+            mDegrees[i] = in.readDouble();
+            mWeatherIds[i] = in.readInt();
+            mDescriptionIndexes[i] = in.readInt();
+        }
+    }
+
+    public static final Parcelable.Creator<ForecastBatch> CREATOR =
+            new Parcelable.Creator<ForecastBatch>() {
+                @Override
+                public ForecastBatch createFromParcel(Parcel in) {
+                    return new ForecastBatch(in);
+                }
+
+                @Override
+                public ForecastBatch[] newArray(int size) {
+                    return new ForecastBatch[size];
+                }
+            };
+}
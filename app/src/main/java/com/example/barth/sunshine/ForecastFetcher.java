@@ -0,0 +1,348 @@
+package com.example.barth.sunshine;
+
+import android.net.Uri;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Downloads the daily forecast of one location and streams it through
+ * {@link ForecastJsonParser}. Shared by {@link FetchWeatherTask} and
+ * {@link WeatherRefreshEngine}; it never touches the database itself.
+ *
+ * With a {@link ForecastResponseCache} the requests are conditional. Validators of a
+ * downloaded body are only recorded once the caller reports, through
+ * {@link #commit(String)}, that its rows have been stored.
+ *
+ * Bodies are requested gzip or deflate encoded and inflated on the fly while the
+ * parser pulls from them.
+ *
+ * A fetch given a {@link Cancellation} checks it before connecting, before reading the
+ * body, on every read from the socket and before handing each day to the callback.
+ */
+public class ForecastFetcher {
+    private static final String LOG_TAG = ForecastFetcher.class.getSimpleName();
+
+    public static final String FORECAST_BASE_URL =
+            "http://api.openweathermap.org/data/2.5/forecast/daily?";
+
+    private static final String QUERY_PARAM = "q";
+    private static final String FORMAT_PARAM = "mode";
+    private static final String UNITS_PARAM = "units";
+    private static final String DAYS_PARAM = "cnt";
+
+    private static final String FORMAT = "json";
+    private static final String UNITS = "metric";
+    private static final int DEFAULT_NUM_DAYS = 7;
+
+    private static final String ACCEPT_ENCODING = "gzip, deflate";
+
+    private static final int DECODE_BUFFER_SIZE = 8192;
+
+    private static final int CONNECT_TIMEOUT_MS = 15000;
+    private static final int READ_TIMEOUT_MS = 20000;
+
+    private final String mBaseUrl;
+    private final int mNumDays;
+    private final ForecastResponseCache mCache;
+
+    /**
+     * Lets the caller of a fetch stop it between two steps.
+     */
+    public interface Cancellation {
+        boolean isCancelled();
+    }
+
+    /**
+     * Thrown by a fetch whose {@link Cancellation} was cancelled.
+     */
+    public static class CancelledException extends InterruptedIOException {
+        public CancelledException(String locationSetting) {
+            super("Fetch of " + locationSetting + " cancelled");
+        }
+    }
+
+    private static final Cancellation NEVER_CANCELLED = new Cancellation() {
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+    };
+
+    /**
+     * Byte counts of one fetch: as received from the socket and once decoded.
+     */
+    public static class TransferStats {
+        public String contentEncoding;
+        // Content-Length of the body, -1 when the server did not send one.
+        public long expectedBytes = -1;
+        public long transferredBytes;
+        public long decodedBytes;
+
+        @Override
+        public String toString() {
+            return transferredBytes + " bytes transferred ("
+                    + (contentEncoding == null ? "identity" : contentEncoding) + "), "
+                    + decodedBytes + " bytes decoded";
+        }
+    }
+
+    // Validators of bodies handed to callbacks but not committed yet, by request uri.
+    private final ConcurrentHashMap<String, ForecastResponseCache.Entry> mPendingEntries =
+            new ConcurrentHashMap<String, ForecastResponseCache.Entry>();
+
+    public ForecastFetcher() {
+        this(FORECAST_BASE_URL, DEFAULT_NUM_DAYS, null);
+    }
+
+    public ForecastFetcher(ForecastResponseCache cache) {
+        this(FORECAST_BASE_URL, DEFAULT_NUM_DAYS, cache);
+    }
+
+    public ForecastFetcher(String baseUrl, int numDays) {
+        this(baseUrl, numDays, null);
+    }
+
+    public ForecastFetcher(String baseUrl, int numDays, ForecastResponseCache cache) {
+        mBaseUrl = baseUrl;
+        mNumDays = numDays;
+        mCache = cache;
+    }
+
+    public Uri buildForecastUri(String locationSetting) {
+        return Uri.parse(mBaseUrl).buildUpon()
+                .appendQueryParameter(QUERY_PARAM, locationSetting)
+                .appendQueryParameter(FORMAT_PARAM, FORMAT)
+                .appendQueryParameter(UNITS_PARAM, UNITS)
+                .appendQueryParameter(DAYS_PARAM, Integer.toString(mNumDays))
+                .build();
+    }
+
+    /**
+     * Fetches {@code locationSetting} and feeds every day to {@code callback}.
+     *
+     * @return false when the stored forecast is still current (fresh cache entry or
+     * 304 answer), in which case {@code callback} was never called.
+     * @throws IOException on network errors, unexpected answers and malformed payloads.
+     */
+    public boolean fetch(String locationSetting, ForecastJsonParser.Callback callback)
+            throws IOException {
+        return fetch(locationSetting, callback, new TransferStats());
+    }
+
+    /**
+     * Same as {@link #fetch(String, ForecastJsonParser.Callback)}, filling {@code stats}
+     * with the byte counts of the body.
+     */
+    public boolean fetch(String locationSetting, ForecastJsonParser.Callback callback,
+                         TransferStats stats) throws IOException {
+        return fetch(locationSetting, callback, stats, NEVER_CANCELLED);
+    }
+
+    /**
+     * Same as {@link #fetch(String, ForecastJsonParser.Callback, TransferStats)}, giving up
+     * with a {@link CancelledException} once {@code cancellation} is cancelled. Days
+     * already handed to {@code callback} are then incomplete and must be dropped.
+     */
+    public boolean fetch(final String locationSetting, final ForecastJsonParser.Callback callback,
+                         TransferStats stats, final Cancellation cancellation) throws IOException {
+        Uri builtUri = buildForecastUri(locationSetting);
+        String key = builtUri.toString();
+        Log.v(LOG_TAG, "Built URI " + key);
+
+        ForecastResponseCache.Entry cached = null;
+        if (mCache != null) {
+            cached = mCache.get(key);
+            if (cached != null && cached.isFresh(System.currentTimeMillis())) {
+                mCache.recordHit();
+                return false;
+            }
+        }
+
+        checkCancelled(locationSetting, cancellation);
+        HttpURLConnection urlConnection = null;
+        try {
+            urlConnection = (HttpURLConnection) new URL(key).openConnection();
+            urlConnection.setRequestMethod("GET");
+            urlConnection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+            urlConnection.setReadTimeout(READ_TIMEOUT_MS);
+            // Revalidation is done by hand, keep any platform cache out of the way.
+            urlConnection.setUseCaches(false);
+            // Setting the header ourselves turns off transparent gzip, decoding is ours.
+            urlConnection.setRequestProperty("Accept-Encoding", ACCEPT_ENCODING);
+            if (cached != null) {
+                if (cached.etag != null) {
+                    urlConnection.setRequestProperty("If-None-Match", cached.etag);
+                }
+                if (cached.lastModified != null) {
+                    urlConnection.setRequestProperty("If-Modified-Since", cached.lastModified);
+                }
+            }
+            urlConnection.connect();
+
+            int status = urlConnection.getResponseCode();
+            if (status == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null) {
+                mCache.recordNotModified();
+                ForecastResponseCache.Entry revalidated = ForecastResponseCache.Entry
+                        .fromResponse(urlConnection, cached, System.currentTimeMillis());
+                if (revalidated != null) {
+                    mCache.put(key, revalidated);
+                } else {
+                    mCache.remove(key);
+                }
+                return false;
+            }
+            if (status != HttpURLConnection.HTTP_OK) {
+                throw new IOException("Unexpected HTTP " + status + " for " + builtUri);
+            }
+            stats.expectedBytes = urlConnection.getContentLength();
+            checkCancelled(locationSetting, cancellation);
+
+            ForecastResponseCache.Entry downloaded = null;
+            if (mCache != null) {
+                mCache.recordMiss();
+                downloaded = ForecastResponseCache.Entry
+                        .fromResponse(urlConnection, null, System.currentTimeMillis());
+                // Until the new rows are committed the old validators no longer apply.
+                mCache.remove(key);
+            }
+
+            InputStream inputStream = urlConnection.getInputStream();
+            if (inputStream == null) {
+                throw new IOException("No body for " + builtUri);
+            }
+
+            stats.contentEncoding = urlConnection.getContentEncoding();
+            CountingInputStream transferred = new CountingInputStream(
+                    new CancellableInputStream(inputStream, locationSetting, cancellation));
+            CountingInputStream decoded =
+                    new CountingInputStream(decode(transferred, stats.contentEncoding));
+            try {
+                new ForecastJsonParser().parse(decoded, new ForecastJsonParser.Callback() {
+                    @Override
+                    public void onCity(String cityName, double lat, double lon) throws IOException {
+                        callback.onCity(cityName, lat, lon);
+                    }
+
+                    @Override
+                    public void onDay(ForecastJsonParser.Day day) throws IOException {
+                        checkCancelled(locationSetting, cancellation);
+                        callback.onDay(day);
+                    }
+                });
+            } catch (IllegalStateException e) {
+                // JsonReader reports unexpected tokens this way.
+                throw new IOException("Malformed forecast for " + builtUri, e);
+            } finally {
+                stats.transferredBytes = transferred.getCount();
+                stats.decodedBytes = decoded.getCount();
+                Log.v(LOG_TAG, locationSetting + ": " + stats);
+            }
+
+            if (downloaded != null) {
+                mPendingEntries.put(key, downloaded);
+            }
+            return true;
+        } finally {
+            if (urlConnection != null) {
+                urlConnection.disconnect();
+            }
+        }
+    }
+
+    private static void checkCancelled(String locationSetting, Cancellation cancellation)
+            throws CancelledException {
+        if (cancellation.isCancelled()) {
+            throw new CancelledException(locationSetting);
+        }
+    }
+
+    /**
+     * Checks the cancellation before every read, so a cancelled fetch stops pulling
+     * from the socket within one buffer.
+     */
+    private static class CancellableInputStream extends FilterInputStream {
+        private final String mLocationSetting;
+        private final Cancellation mCancellation;
+
+        CancellableInputStream(InputStream in, String locationSetting, Cancellation cancellation) {
+            super(in);
+            mLocationSetting = locationSetting;
+            mCancellation = cancellation;
+        }
+
+        @Override
+        public int read() throws IOException {
+            checkCancelled(mLocationSetting, mCancellation);
+            return in.read();
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            checkCancelled(mLocationSetting, mCancellation);
+            return in.read(buffer, offset, count);
+        }
+    }
+
+    /**
+     * Wraps {@code in} with the decoder matching {@code contentEncoding}.
+     */
+    static InputStream decode(InputStream in, String contentEncoding) throws IOException {
+        if (contentEncoding == null || contentEncoding.equalsIgnoreCase("identity")) {
+            return in;
+        }
+        if (contentEncoding.equalsIgnoreCase("gzip") || contentEncoding.equalsIgnoreCase("x-gzip")) {
+            return new GZIPInputStream(in, DECODE_BUFFER_SIZE);
+        }
+        if (contentEncoding.equalsIgnoreCase("deflate")) {
+            // "deflate" should be zlib wrapped, but some servers send a raw stream.
+            BufferedInputStream buffered = new BufferedInputStream(in, DECODE_BUFFER_SIZE);
+            buffered.mark(2);
+            int cmf = buffered.read();
+            int flg = buffered.read();
+            buffered.reset();
+            boolean zlibWrapped = cmf != -1 && flg != -1
+                    && (cmf & 0x0f) == 8 && ((cmf << 8) | flg) % 31 == 0;
+            return new InflaterInputStream(buffered, new Inflater(!zlibWrapped), DECODE_BUFFER_SIZE);
+        }
+        throw new IOException("Unsupported Content-Encoding " + contentEncoding);
+    }
+
+    /**
+     * Records the validators of the last body fetched for {@code locationSetting}, to be
+     * called once its rows are stored.
+     */
+    public void commit(String locationSetting) {
+        if (mCache == null) {
+            return;
+        }
+        String key = buildForecastUri(locationSetting).toString();
+        ForecastResponseCache.Entry entry = mPendingEntries.remove(key);
+        if (entry != null) {
+            mCache.put(key, entry);
+        }
+    }
+
+    /**
+     * Drops the validators of {@code locationSetting}, committed or not, so its next
+     * fetch downloads the whole body.
+     */
+    public void forget(String locationSetting) {
+        if (mCache == null) {
+            return;
+        }
+        String key = buildForecastUri(locationSetting).toString();
+        mPendingEntries.remove(key);
+        mCache.remove(key);
+    }
+}
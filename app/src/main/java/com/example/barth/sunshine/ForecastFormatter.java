@@ -0,0 +1,159 @@
+package com.example.barth.sunshine;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Formats forecast rows for display without touching the preferences or allocating on
+ * the list-bind path.
+ *
+ * The temperature unit is read once and then kept up to date by a preference listener.
+ * Temperatures are written into a buffer owned by the caller, and dates come from a
+ * small table of strings already formatted, keyed by epoch day, which is cleared when
+ * the default locale changes.
+ */
+public class ForecastFormatter {
+    private static final String LOG_TAG = ForecastFormatter.class.getSimpleName();
+
+    /**
+     * Enough for two longs, the separator and signs.
+     */
+    public static final int HIGH_LOW_BUFFER_SIZE = 48;
+
+    // A power of two, a forecast spans far fewer days than this.
+    private static final int DATE_CACHE_SIZE = 64;
+
+    private static ForecastFormatter sInstance;
+
+    public static synchronized ForecastFormatter getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ForecastFormatter(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private final Context mContext;
+    private final String mUnitsKey;
+    private volatile boolean mImperial;
+
+    // Kept in a field, the preferences only hold their listeners weakly.
+    private final SharedPreferences.OnSharedPreferenceChangeListener mListener =
+            new SharedPreferences.OnSharedPreferenceChangeListener() {
+                @Override
+                public void onSharedPreferenceChanged(SharedPreferences prefs, String key) {
+                    if (mUnitsKey.equals(key)) {
+                        readUnits(prefs);
+                    }
+                }
+            };
+
+    private Locale mLocale;
+    private SimpleDateFormat mDateFormat;
+    private final long[] mCachedDays = new long[DATE_CACHE_SIZE];
+    private final String[] mCachedDates = new String[DATE_CACHE_SIZE];
+
+    ForecastFormatter(Context context) {
+        mContext = context;
+        mUnitsKey = context.getString(R.string.pref_units_key);
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        readUnits(prefs);
+        prefs.registerOnSharedPreferenceChangeListener(mListener);
+    }
+
+    private void readUnits(SharedPreferences prefs) {
+        String unitType = prefs.getString(mUnitsKey, mContext.getString(R.string.pref_units_metric));
+        mImperial = unitType.equals(mContext.getString(R.string.prefs_units_imperial));
+        if (!mImperial && !unitType.equalsIgnoreCase(mContext.getString(R.string.pref_units_metric))) {
+            Log.d(LOG_TAG, "Unit type not found  :" + unitType);
+        }
+    }
+
+    public boolean isImperial() {
+        return mImperial;
+    }
+
+    /**
+     * Writes "high/low", rounded to the degree in the preferred unit, into {@code buffer},
+     * which needs {@link #HIGH_LOW_BUFFER_SIZE} chars.
+     *
+     * @return the number of chars written, from index 0.
+     */
+    public int formatHighLows(double high, double low, char[] buffer) {
+        if (mImperial) {
+            high = (high * 1.8) + 32;
+            low = (low * 1.8) + 32;
+        }
+        // For presentation, assume the user doesn't care about tenths of a degree.
+        int length = appendLong(Math.round(high), buffer, 0);
+        buffer[length++] = '/';
+        return appendLong(Math.round(low), buffer, length);
+    }
+
+    /**
+     * Same as {@link #formatHighLows(double, double, char[])}, as a new string.
+     */
+    public String formatHighLows(double high, double low) {
+        char[] buffer = new char[HIGH_LOW_BUFFER_SIZE];
+        return new String(buffer, 0, formatHighLows(high, low, buffer));
+    }
+
+    /**
+     * Writes the decimal digits of {@code value} at {@code offset}.
+     *
+     * @return the index after the last char written.
+     */
+    static int appendLong(long value, char[] buffer, int offset) {
+        if (value == 0) {
+            buffer[offset] = '0';
+            return offset + 1;
+        }
+        int start = offset;
+        // Digits of a negative number, so Long.MIN_VALUE needs no special case.
+        long remaining = value < 0 ? value : -value;
+        if (value < 0) {
+            buffer[offset++] = '-';
+            start++;
+        }
+        while (remaining != 0) {
+            buffer[offset++] = (char) ('0' - (remaining % 10));
+            remaining /= 10;
+        }
+        // Digits came out least significant first.
+        for (int i = start, j = offset - 1; i < j; i++, j--) {
+            char digit = buffer[i];
+            buffer[i] = buffer[j];
+            buffer[j] = digit;
+        }
+        return offset;
+    }
+
+    /**
+     * Turns an epoch day as stored in the database into something readable, such as "Sat May 09".
+     */
+    public synchronized String formatDate(long epochDay) {
+        Locale locale = Locale.getDefault();
+        if (!locale.equals(mLocale)) {
+            mLocale = locale;
+            mDateFormat = new SimpleDateFormat("EEE MMM dd", locale);
+            // Epoch days are UTC days, format them in UTC so the day does not shift.
+            mDateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+            Arrays.fill(mCachedDates, null);
+        }
+
+        int slot = (int) (epochDay & (DATE_CACHE_SIZE - 1));
+        String date = mCachedDates[slot];
+        if (date == null || mCachedDays[slot] != epochDay) {
+            date = mDateFormat.format(WeatherContract.epochDayToMillis(epochDay));
+            mCachedDays[slot] = epochDay;
+            mCachedDates[slot] = date;
+        }
+        return date;
+    }
+}
@@ -1,34 +1,68 @@
 package com.example.barth.sunshine;
 
 import android.content.Intent;
-import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.net.Uri;
 import android.os.Bundle;
-import android.preference.PreferenceManager;
+import android.os.SystemClock;
 import android.support.v4.app.Fragment;
+import android.support.v4.app.LoaderManager;
+import android.support.v4.content.CursorLoader;
+import android.support.v4.content.Loader;
+import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
 import android.widget.AdapterView;
-import android.widget.ArrayAdapter;
 import android.widget.ListView;
 
-import java.util.ArrayList;
+import java.util.Set;
 
 /**
  * Created by barth on 30/03/15.
  */
-public  class ForecastFragment extends Fragment {
+public  class ForecastFragment extends Fragment implements LoaderManager.LoaderCallbacks<Cursor> {
+    private static final String LOG_TAG = ForecastFragment.class.getSimpleName();
+
+    private static final int FORECAST_LOADER = 0;
+
+    // Both tables have an _id column, the weather one is what the adapter needs.
+    static final String[] FORECAST_COLUMNS = {
+            WeatherContract.WeatherEntry.TABLE_NAME + "." + WeatherContract.WeatherEntry._ID,
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING
+    };
+
+    // These indices are tied to FORECAST_COLUMNS.
+    static final int COL_WEATHER_ID = 0;
+    static final int COL_WEATHER_DATE = 1;
+    static final int COL_WEATHER_CONDITION_ID = 2;
+    static final int COL_WEATHER_MAX_TEMP = 3;
+    static final int COL_WEATHER_MIN_TEMP = 4;
+    static final int COL_LOCATION_SETTING = 5;
+
+    ForecastAdapter mForecastAdapter = null;
+    private String mLocation;
+    // Refresh of a single tracked location, cancelled when the fragment stops.
+    private FetchCoordinator.Handle mFetch;
+    // Time to first forecast is measured from onCreate, until the database answers.
+    private long mCreatedAt;
+    private boolean mDatabaseShown;
 
-    ArrayAdapter mForecastAdapter = null;
     public ForecastFragment() {
     }
 
     @Override
     public void onCreate(Bundle savedInstanceState){
         super.onCreate(savedInstanceState);
+        mCreatedAt = SystemClock.elapsedRealtime();
 
         setHasOptionsMenu(true);
     }
@@ -43,7 +77,7 @@ public  class ForecastFragment extends Fragment {
         int id = item.getItemId();
 
         if(id == R.id.action_refresh){
-          updateWeather();
+          updateWeather(true);
            // Log.i("EXECUTION","Execute");
             return true;
         }
@@ -51,20 +85,82 @@ public  class ForecastFragment extends Fragment {
 
     }
 
+    @Override
+    public void onActivityCreated(Bundle savedInstanceState) {
+        showSnapshot();
+        getLoaderManager().initLoader(FORECAST_LOADER, null, this);
+        super.onActivityCreated(savedInstanceState);
+    }
+
+    /**
+     * Work of onStart that can wait: it reads preferences and starts network and database
+     * tasks, so it runs once the frame has been drawn.
+     */
+    private final Runnable mDeferredStart = new Runnable() {
+        @Override
+        public void run() {
+            if (!isAdded()) {
+                return;
+            }
+            // The loader shows what is stored right away, only stale locations go to the network.
+            updateWeather(false);
+            WeatherRetention.runIfDue(getActivity());
+            SyncScheduler.ensureScheduled(getActivity());
+        }
+    };
+
     @Override
     public void onStart() {
         super.onStart();
-        updateWeather();
+        // Before the first layout the view is not attached yet, the runnable then waits
+        // for the first traversal and runs right after it.
+        getView().post(mDeferredStart);
     }
 
-    private void updateWeather(){
+    @Override
+    public void onStop() {
+        super.onStop();
+        getView().removeCallbacks(mDeferredStart);
+        if (mFetch != null) {
+            mFetch.cancel();
+            mFetch = null;
+        }
+    }
 
-        FetchWeatherTask weatherTask = new FetchWeatherTask(getActivity(),this);
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(getActivity());
-        String location = prefs.getString(getString(R.string.pref_location_key),
-                getString(R.string.pref_location_default));
+    @Override
+    public void onResume() {
+        super.onResume();
+        // The preferred location may have changed in the settings.
+        if (mLocation != null && !mLocation.equals(Utility.getPreferredLocation(getActivity()))) {
+            getLoaderManager().restartLoader(FORECAST_LOADER, null, this);
+        }
+    }
 
-        weatherTask.execute(location);
+    /**
+     * Refreshes the tracked locations that are stale, or all of them with {@code force},
+     * except those already being refreshed.
+     */
+    private void updateWeather(boolean force){
+
+        Set<String> tracked = Utility.getTrackedLocations(getActivity());
+        if (tracked.size() == 1) {
+            // Repeated taps join the refresh already running.
+            FetchCoordinator.Handle fetch = FetchCoordinator.getInstance()
+                    .submit(getActivity(), tracked.iterator().next(), force);
+            if (fetch != null) {
+                if (mFetch != null) {
+                    mFetch.cancel();
+                }
+                mFetch = fetch;
+            }
+            return;
+        }
+
+        Set<String> locations = RefreshPolicy.getInstance(getActivity()).begin(tracked, force);
+        if (!locations.isEmpty()) {
+            new WeatherRefreshEngine.RefreshTask(getActivity())
+                    .execute(locations.toArray(new String[locations.size()]));
+        }
     }
     @Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container,
@@ -74,20 +170,32 @@ public  class ForecastFragment extends Fragment {
         ListView list;
 
 
-        mForecastAdapter = new ArrayAdapter<String>(getActivity(),
-                R.layout.list_item_forecast,
-                R.id.list_item_forecast_textview,
-                new ArrayList<String>());
+        mForecastAdapter = new ForecastAdapter(getActivity(), null, 0);
 
         list = (ListView) rootView.findViewById(R.id.list_item_forecast);
         list.setAdapter(mForecastAdapter);
+        final ViewTreeObserver observer = list.getViewTreeObserver();
+        observer.addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                StartupTrace.mark(StartupTrace.Phase.FIRST_FRAME);
+                if (observer.isAlive()) {
+                    observer.removeOnPreDrawListener(this);
+                }
+                return true;
+            }
+        });
         list.setOnItemClickListener(new AdapterView.OnItemClickListener(){
             @Override
             public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
-                String forecast =(String) mForecastAdapter.getItem(position);
-                Intent intent = new Intent(getActivity(),DetailActivity.class)
-                        .putExtra(Intent.EXTRA_TEXT,forecast);
-                startActivity(intent);
+                Cursor cursor = (Cursor) parent.getItemAtPosition(position);
+                if (cursor != null) {
+                    Intent intent = new Intent(getActivity(),DetailActivity.class)
+                            .setData(WeatherContract.WeatherEntry.buildWeatherLocationWithDate(
+                                    cursor.getString(COL_LOCATION_SETTING),
+                                    cursor.getLong(COL_WEATHER_DATE)));
+                    startActivity(intent);
+                }
 
             }
         });
@@ -98,10 +206,57 @@ public  class ForecastFragment extends Fragment {
 
     }
 
-    public ArrayAdapter getmForecastAdapter() {
-        return mForecastAdapter;
+    /**
+     * Fills the list from the {@link ForecastSnapshot} until the loader delivers, so the
+     * first frame does not wait for the database.
+     */
+    private void showSnapshot() {
+        ForecastSnapshot snapshot = ForecastSnapshot.read(getActivity());
+        if (snapshot == null
+                || !snapshot.getLocationSetting().equals(Utility.getPreferredLocation(getActivity()))) {
+            return;
+        }
+        Cursor cursor = snapshot.toCursor(WeatherContract.toLocalEpochDay(System.currentTimeMillis()));
+        if (cursor.getCount() > 0) {
+            mForecastAdapter.swapCursor(cursor);
+            StartupTrace.mark(StartupTrace.Phase.FIRST_DATA, "snapshot");
+            Log.i(LOG_TAG, "First forecast from the snapshot after "
+                    + (SystemClock.elapsedRealtime() - mCreatedAt) + " ms");
+        }
     }
 
+    @Override
+    public Loader<Cursor> onCreateLoader(int id, Bundle args) {
+        mLocation = Utility.getPreferredLocation(getActivity());
+        long startDate = WeatherContract.toLocalEpochDay(System.currentTimeMillis());
+        String sortOrder = WeatherContract.WeatherEntry.COLUMN_DATE + " ASC";
 
+        Uri weatherForLocationUri = WeatherContract.WeatherEntry
+                .buildWeatherLocationWithStartDate(mLocation, startDate);
 
+        return new CursorLoader(getActivity(),
+                weatherForLocationUri,
+                FORECAST_COLUMNS,
+                null,
+                null,
+                sortOrder);
+    }
+
+    @Override
+    public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
+        if (!mDatabaseShown && data != null && data.getCount() > 0) {
+            mDatabaseShown = true;
+            StartupTrace.mark(StartupTrace.Phase.FIRST_DATA, "database");
+            StartupTrace.mark(StartupTrace.Phase.FIRST_DATABASE_DATA);
+            Log.i(LOG_TAG, "First forecast from the database after "
+                    + (SystemClock.elapsedRealtime() - mCreatedAt) + " ms");
+        }
+        // Replaces the snapshot rows, if any. Those hold no resources and need no close.
+        mForecastAdapter.swapCursor(data);
+    }
+
+    @Override
+    public void onLoaderReset(Loader<Cursor> loader) {
+        mForecastAdapter.swapCursor(null);
+    }
 }
@@ -0,0 +1,212 @@
+package com.example.barth.sunshine;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+/**
+ * Pull parser for the OpenWeatherMap daily forecast payload.
+ *
+ * The stream is read token by token and every day is handed to the {@link Callback}
+ * as soon as its object is closed, so neither the body string nor a JSONObject tree
+ * is ever built. The same {@link Day} instance is reused for every day of a payload,
+ * callbacks must copy what they need before returning.
+ */
+public class ForecastJsonParser {
+
+    // Location information
+    private static final String OWM_CITY = "city";
+    private static final String OWM_CITY_NAME = "name";
+    private static final String OWM_COORD = "coord";
+    private static final String OWM_COORD_LAT = "lat";
+    private static final String OWM_COORD_LONG = "lon";
+
+    private static final String OWM_LIST = "list";
+
+    private static final String OWM_DATETIME = "dt";
+    private static final String OWM_PRESSURE = "pressure";
+    private static final String OWM_HUMIDITY = "humidity";
+    private static final String OWM_WINDSPEED = "speed";
+    private static final String OWM_WIND_DIRECTION = "deg";
+
+    // All temperatures are children of the "temp" object.
+    private static final String OWM_TEMPERATURE = "temp";
+    private static final String OWM_MAX = "max";
+    private static final String OWM_MIN = "min";
+
+    private static final String OWM_WEATHER = "weather";
+    private static final String OWM_DESCRIPTION = "main";
+    private static final String OWM_WEATHER_ID = "id";
+
+    /**
+     * One day of forecast. Reused between callbacks.
+     */
+    public static final class Day {
+        public long dateTime;
+        public double pressure;
+        public int humidity;
+        public double windSpeed;
+        public double windDirection;
+        public double high;
+        public double low;
+        public String description;
+        public int weatherId;
+
+        void clear() {
+            dateTime = 0;
+            pressure = 0;
+            humidity = 0;
+            windSpeed = 0;
+            windDirection = 0;
+            high = 0;
+            low = 0;
+            description = null;
+            weatherId = 0;
+        }
+    }
+
+    public interface Callback {
+        /**
+         * Called once when the "city" object has been read.
+         */
+        void onCity(String cityName, double lat, double lon) throws IOException;
+
+        /**
+         * Called for every element of "list", in payload order.
+         */
+        void onDay(Day day) throws IOException;
+    }
+
+    private final Day mDay = new Day();
+
+    /**
+     * Reads the whole payload from {@code in} and closes it. The API always answers
+     * in UTF-8, whatever the platform default charset is.
+     */
+    public void parse(InputStream in, Callback callback) throws IOException {
+        JsonReader reader = new JsonReader(new InputStreamReader(in, "UTF-8"));
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (OWM_CITY.equals(name)) {
+                    readCity(reader, callback);
+                } else if (OWM_LIST.equals(name)) {
+                    readList(reader, callback);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } finally {
+            reader.close();
+        }
+    }
+
+    private void readCity(JsonReader reader, Callback callback) throws IOException {
+        String cityName = null;
+        double lat = 0;
+        double lon = 0;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_CITY_NAME.equals(name)) {
+                cityName = reader.nextString();
+            } else if (OWM_COORD.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String coord = reader.nextName();
+                    if (OWM_COORD_LAT.equals(coord)) {
+                        lat = reader.nextDouble();
+                    } else if (OWM_COORD_LONG.equals(coord)) {
+                        lon = reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        callback.onCity(cityName, lat, lon);
+    }
+
+    private void readList(JsonReader reader, Callback callback) throws IOException {
+        reader.beginArray();
+        while (reader.hasNext()) {
+            readDay(reader, mDay);
+            callback.onDay(mDay);
+        }
+        reader.endArray();
+    }
+
+    private void readDay(JsonReader reader, Day day) throws IOException {
+        day.clear();
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.skipValue();
+            } else if (OWM_DATETIME.equals(name)) {
+                day.dateTime = reader.nextLong();
+            } else if (OWM_PRESSURE.equals(name)) {
+                day.pressure = reader.nextDouble();
+            } else if (OWM_HUMIDITY.equals(name)) {
+                day.humidity = reader.nextInt();
+            } else if (OWM_WINDSPEED.equals(name)) {
+                day.windSpeed = reader.nextDouble();
+            } else if (OWM_WIND_DIRECTION.equals(name)) {
+                day.windDirection = reader.nextDouble();
+            } else if (OWM_TEMPERATURE.equals(name)) {
+                // Temperatures are in a child object called "temp".
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String temp = reader.nextName();
+                    if (OWM_MAX.equals(temp)) {
+                        day.high = reader.nextDouble();
+                    } else if (OWM_MIN.equals(temp)) {
+                        day.low = reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (OWM_WEATHER.equals(name)) {
+                // description is in a child array called "weather", only the first element counts.
+                reader.beginArray();
+                boolean first = true;
+                while (reader.hasNext()) {
+                    if (!first) {
+                        reader.skipValue();
+                        continue;
+                    }
+                    first = false;
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String field = reader.nextName();
+                        if (OWM_DESCRIPTION.equals(field)) {
+                            day.description = reader.nextString();
+                        } else if (OWM_WEATHER_ID.equals(field)) {
+                            day.weatherId = reader.nextInt();
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+}
@@ -0,0 +1,469 @@
+package com.example.barth.sunshine;
+
+import android.database.AbstractCursor;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.barth.sunshine.WeatherContract.LocationEntry;
+import com.example.barth.sunshine.WeatherContract.WeatherEntry;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Weather rows of the most recently read locations, decoded into primitive arrays,
+ * answering the {@link WeatherProvider} queries by location setting.
+ */
+class ForecastQueryCache {
+
+    static final int DEFAULT_MAX_LOCATIONS = 8;
+    // Larger forecasts are not worth the memory, they go to SQLite.
+    static final int MAX_ROWS_PER_LOCATION = 512;
+
+    // Columns an entry can serve, the index of each name is its column id.
+    private static final String[] COLUMNS = {
+            WeatherEntry._ID,
+            WeatherEntry.COLUMN_LOC_KEY,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREE,
+            LocationEntry.COLUMN_LOCATION_SETTING,
+            LocationEntry.COLUMN_CITY_NAME,
+            LocationEntry.COLUMN_COORD_LAT,
+            LocationEntry.COLUMN_COORD_LONG
+    };
+    private static final int COLUMN_WEATHER_ROW_ID = 0;
+    private static final int COLUMN_LOC_KEY = 1;
+    private static final int COLUMN_DATE = 2;
+    private static final int COLUMN_WEATHER_ID = 3;
+    // Columns 4 to 9 are the doubles of Entry.values, in the same order.
+    private static final int COLUMN_FIRST_VALUE = 4;
+    private static final int VALUE_COUNT = 6;
+    private static final int COLUMN_LOCATION_SETTING = 10;
+    private static final int COLUMN_CITY_NAME = 11;
+    private static final int COLUMN_COORD_LAT = 12;
+    private static final int COLUMN_COORD_LONG = 13;
+
+    private static final String SQL_LOAD = "SELECT " +
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID + ", " +
+            LocationEntry.TABLE_NAME + "." + LocationEntry._ID + ", " +
+            WeatherEntry.COLUMN_DATE + ", " +
+            WeatherEntry.COLUMN_WEATHER_ID + ", " +
+            WeatherEntry.COLUMN_MIN_TEMP + ", " +
+            WeatherEntry.COLUMN_MAX_TEMP + ", " +
+            WeatherEntry.COLUMN_HUMIDITY + ", " +
+            WeatherEntry.COLUMN_PRESSURE + ", " +
+            WeatherEntry.COLUMN_WIND_SPEED + ", " +
+            WeatherEntry.COLUMN_DEGREE + ", " +
+            LocationEntry.COLUMN_CITY_NAME + ", " +
+            LocationEntry.COLUMN_COORD_LAT + ", " +
+            LocationEntry.COLUMN_COORD_LONG +
+            " FROM " + WeatherEntry.TABLE_NAME + " INNER JOIN " + LocationEntry.TABLE_NAME +
+            " ON " + WeatherEntry.TABLE_NAME + "." + WeatherEntry.COLUMN_LOC_KEY +
+            " = " + LocationEntry.TABLE_NAME + "." + LocationEntry._ID +
+            " WHERE " + LocationEntry.TABLE_NAME + "." + LocationEntry.COLUMN_LOCATION_SETTING + " = ?" +
+            " ORDER BY " + WeatherEntry.COLUMN_DATE + " ASC";
+
+    /**
+     * Every weather row of one location, sorted by date. Never changed once built.
+     */
+    private static final class Entry {
+        final String locationSetting;
+        final int size;
+        final long[] ids;
+        final long[] dates;
+        final int[] weatherIds;
+        final double[][] values = new double[VALUE_COUNT][];
+        long locationId;
+        String cityName;
+        double lat;
+        double lon;
+
+        Entry(String locationSetting, int size) {
+            this.locationSetting = locationSetting;
+            this.size = size;
+            ids = new long[size];
+            dates = new long[size];
+            weatherIds = new int[size];
+            for (int i = 0; i < VALUE_COUNT; i++) {
+                values[i] = new double[size];
+            }
+        }
+
+        /**
+         * @return the index of the first row dated {@code date} or later.
+         */
+        int lowerBound(long date) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (dates[middle] < date) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+    }
+
+    private final int mMaxLocations;
+    private final LinkedHashMap<String, Entry> mEntries;
+
+    // See LocationIdCache.Pending.
+    private int mGeneration = 0;
+
+    private int mHitCount;
+    private int mMissCount;
+    private int mEvictionCount;
+    private int mInvalidationCount;
+
+    ForecastQueryCache() {
+        this(DEFAULT_MAX_LOCATIONS);
+    }
+
+    ForecastQueryCache(int maxLocations) {
+        mMaxLocations = maxLocations;
+        mEntries = new LinkedHashMap<String, Entry>(maxLocations, 0.75f, true);
+    }
+
+    /**
+     * Rows of {@code locationSetting} dated from {@code fromDate} to {@code toDate}, both
+     * included, from the cache or loaded into it.
+     *
+     * @return null when the query has to go to SQLite.
+     */
+    Cursor query(SQLiteDatabase db, String locationSetting, long fromDate, long toDate,
+                 String[] projection, String sortOrder) {
+        int[] columns = mapProjection(projection);
+        if (columns == null) {
+            return null;
+        }
+        boolean descending;
+        if (sortOrder == null || sortOrder.trim().equalsIgnoreCase(WeatherEntry.COLUMN_DATE + " ASC")
+                || sortOrder.trim().equalsIgnoreCase(WeatherEntry.COLUMN_DATE)) {
+            descending = false;
+        } else if (sortOrder.trim().equalsIgnoreCase(WeatherEntry.COLUMN_DATE + " DESC")) {
+            descending = true;
+        } else {
+            return null;
+        }
+
+        Entry entry;
+        int generation;
+        synchronized (this) {
+            entry = mEntries.get(locationSetting);
+            if (entry != null) {
+                mHitCount++;
+            } else {
+                mMissCount++;
+            }
+            generation = mGeneration;
+        }
+        if (entry == null) {
+            entry = load(db, locationSetting);
+            if (entry == null) {
+                return null;
+            }
+            store(entry, generation);
+        }
+
+        int first = entry.lowerBound(fromDate);
+        int end = toDate == Long.MAX_VALUE ? entry.size : entry.lowerBound(toDate + 1);
+        String[] columnNames = projection != null ? toColumnNames(projection) : COLUMNS;
+        return new EntryCursor(entry, columnNames, columns, first, Math.max(first, end), descending);
+    }
+
+    /**
+     * Reads the location again, for when it has just been written. Nothing happens
+     * unless it is cached.
+     */
+    void reload(SQLiteDatabase db, String locationSetting) {
+        int generation;
+        synchronized (this) {
+            if (mEntries.remove(locationSetting) == null) {
+                return;
+            }
+            mInvalidationCount++;
+            mGeneration++;
+            generation = mGeneration;
+        }
+        Entry entry = load(db, locationSetting);
+        if (entry != null) {
+            store(entry, generation);
+        }
+    }
+
+    /**
+     * Drops every entry, for writes whose locations are not known.
+     */
+    synchronized void invalidateAll() {
+        mInvalidationCount += mEntries.size();
+        mEntries.clear();
+        mGeneration++;
+    }
+
+    synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    synchronized int getMissCount() {
+        return mMissCount;
+    }
+
+    synchronized int getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    synchronized int getInvalidationCount() {
+        return mInvalidationCount;
+    }
+
+    synchronized double getHitRatio() {
+        int lookups = mHitCount + mMissCount;
+        return lookups == 0 ? 0 : (double) mHitCount / lookups;
+    }
+
+    synchronized int size() {
+        return mEntries.size();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ForecastQueryCache[locations=" + mEntries.size() + ", hits=" + mHitCount
+                + ", misses=" + mMissCount + ", evictions=" + mEvictionCount
+                + ", invalidations=" + mInvalidationCount + "]";
+    }
+
+    private synchronized void store(Entry entry, int generation) {
+        if (generation != mGeneration) {
+            return;
+        }
+        mEntries.put(entry.locationSetting, entry);
+        Iterator<Map.Entry<String, Entry>> eldest = mEntries.entrySet().iterator();
+        while (mEntries.size() > mMaxLocations) {
+            eldest.next();
+            eldest.remove();
+            mEvictionCount++;
+        }
+    }
+
+    /**
+     * @return the entry of {@code locationSetting}, or null when it is too large to keep.
+     */
+    private static Entry load(SQLiteDatabase db, String locationSetting) {
+        Cursor cursor = db.rawQuery(SQL_LOAD, new String[]{locationSetting});
+        try {
+            int count = cursor.getCount();
+            if (count > MAX_ROWS_PER_LOCATION) {
+                return null;
+            }
+            Entry entry = new Entry(locationSetting, count);
+            for (int row = 0; cursor.moveToNext(); row++) {
+                entry.ids[row] = cursor.getLong(0);
+                entry.locationId = cursor.getLong(1);
+                entry.dates[row] = cursor.getLong(2);
+                entry.weatherIds[row] = cursor.getInt(3);
+                for (int i = 0; i < VALUE_COUNT; i++) {
+                    entry.values[i][row] = cursor.getDouble(4 + i);
+                }
+                if (row == 0) {
+                    entry.cityName = cursor.getString(10);
+                    entry.lat = cursor.getDouble(11);
+                    entry.lon = cursor.getDouble(12);
+                }
+            }
+            return entry;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * @return the column id of every projected column, or null when one of them is not
+     * a plain column of the join.
+     */
+    private static int[] mapProjection(String[] projection) {
+        if (projection == null) {
+            int[] all = new int[COLUMNS.length];
+            for (int i = 0; i < all.length; i++) {
+                all[i] = i;
+            }
+            return all;
+        }
+
+        int[] columns = new int[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            String name = projection[i];
+            if (name.equals(LocationEntry.TABLE_NAME + "." + LocationEntry._ID)) {
+                columns[i] = COLUMN_LOC_KEY;
+                continue;
+            }
+            // An unqualified _id is ambiguous in the join, SQLite reports the error.
+            if (name.equals(WeatherEntry._ID)) {
+                return null;
+            }
+            if (name.startsWith(WeatherEntry.TABLE_NAME + ".")) {
+                name = name.substring(WeatherEntry.TABLE_NAME.length() + 1);
+            } else if (name.startsWith(LocationEntry.TABLE_NAME + ".")) {
+                name = name.substring(LocationEntry.TABLE_NAME.length() + 1);
+            }
+            int column = -1;
+            for (int j = 0; j < COLUMNS.length; j++) {
+                if (COLUMNS[j].equals(name)) {
+                    column = j;
+                    break;
+                }
+            }
+            if (column == -1) {
+                return null;
+            }
+            columns[i] = column;
+        }
+        return columns;
+    }
+
+    /**
+     * @return the names SQLite gives the projected columns, without their table: a
+     * cursor only strips the table from the names it is asked for, not from its own.
+     */
+    private static String[] toColumnNames(String[] projection) {
+        String[] names = new String[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            names[i] = projection[i].substring(projection[i].lastIndexOf('.') + 1);
+        }
+        return names;
+    }
+
+    /**
+     * Rows {@code first} to {@code end} (excluded) of an entry, read in place.
+     */
+    private static final class EntryCursor extends AbstractCursor {
+        private final Entry mEntry;
+        private final String[] mColumnNames;
+        private final int[] mColumns;
+        private final int mFirst;
+        private final int mCount;
+        private final boolean mDescending;
+
+        EntryCursor(Entry entry, String[] columnNames, int[] columns, int first, int end,
+                    boolean descending) {
+            mEntry = entry;
+            mColumnNames = columnNames;
+            mColumns = columns;
+            mFirst = first;
+            mCount = end - first;
+            mDescending = descending;
+        }
+
+        private int row() {
+            int position = getPosition();
+            return mFirst + (mDescending ? mCount - 1 - position : position);
+        }
+
+        @Override
+        public int getCount() {
+            return mCount;
+        }
+
+        @Override
+        public String[] getColumnNames() {
+            return mColumnNames;
+        }
+
+        @Override
+        public int getType(int column) {
+            switch (mColumns[column]) {
+                case COLUMN_LOCATION_SETTING:
+                case COLUMN_CITY_NAME:
+                    return FIELD_TYPE_STRING;
+                case COLUMN_WEATHER_ROW_ID:
+                case COLUMN_LOC_KEY:
+                case COLUMN_DATE:
+                case COLUMN_WEATHER_ID:
+                    return FIELD_TYPE_INTEGER;
+                default:
+                    return FIELD_TYPE_FLOAT;
+            }
+        }
+
+        @Override
+        public String getString(int column) {
+            switch (mColumns[column]) {
+                case COLUMN_LOCATION_SETTING:
+                    return mEntry.locationSetting;
+                case COLUMN_CITY_NAME:
+                    return mEntry.cityName;
+                default:
+                    return getType(column) == FIELD_TYPE_INTEGER
+                            ? Long.toString(getLong(column)) : Double.toString(getDouble(column));
+            }
+        }
+
+        @Override
+        public long getLong(int column) {
+            int row = row();
+            switch (mColumns[column]) {
+                case COLUMN_WEATHER_ROW_ID:
+                    return mEntry.ids[row];
+                case COLUMN_LOC_KEY:
+                    return mEntry.locationId;
+                case COLUMN_DATE:
+                    return mEntry.dates[row];
+                case COLUMN_WEATHER_ID:
+                    return mEntry.weatherIds[row];
+                case COLUMN_LOCATION_SETTING:
+                case COLUMN_CITY_NAME:
+                    return Long.parseLong(getString(column));
+                default:
+                    return (long) getDouble(column);
+            }
+        }
+
+        @Override
+        public double getDouble(int column) {
+            int id = mColumns[column];
+            switch (id) {
+                case COLUMN_COORD_LAT:
+                    return mEntry.lat;
+                case COLUMN_COORD_LONG:
+                    return mEntry.lon;
+                case COLUMN_LOCATION_SETTING:
+                case COLUMN_CITY_NAME:
+                    return Double.parseDouble(getString(column));
+                default:
+                    if (id >= COLUMN_FIRST_VALUE && id < COLUMN_FIRST_VALUE + VALUE_COUNT) {
+                        return mEntry.values[id - COLUMN_FIRST_VALUE][row()];
+                    }
+                    return getLong(column);
+            }
+        }
+
+        @Override
+        public short getShort(int column) {
+            return (short) getLong(column);
+        }
+
+        @Override
+        public int getInt(int column) {
+            return (int) getLong(column);
+        }
+
+        @Override
+        public float getFloat(int column) {
+            return (float) getDouble(column);
+        }
+
+        @Override
+        public boolean isNull(int column) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,276 @@
+package com.example.barth.sunshine;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers the HTTP validators (ETag, Last-Modified) and freshness lifetime of the
+ * last forecast stored for each request uri.
+ *
+ * The forecast body itself is not kept: once its rows are in {@link WeatherProvider}
+ * a 304 or a still fresh entry means there is nothing to parse nor write. The index
+ * lives in a single small file of the cache directory and is bounded to
+ * {@link #MAX_ENTRIES}, the least recently used uris being evicted first.
+ */
+public class ForecastResponseCache {
+    private static final String LOG_TAG = ForecastResponseCache.class.getSimpleName();
+
+    static final int MAX_ENTRIES = 64;
+
+    private static final String FILE_NAME = "forecast_validators";
+    private static final int FILE_VERSION = 1;
+
+    private static ForecastResponseCache sInstance;
+
+    public static class Entry {
+        final String etag;
+        final String lastModified;
+        final long expiresAt;
+
+        Entry(String etag, String lastModified, long expiresAt) {
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isFresh(long now) {
+            return now < expiresAt;
+        }
+
+        boolean hasValidators() {
+            return etag != null || lastModified != null;
+        }
+
+        /**
+         * Builds an entry from a 200 or 304 answer, or returns null when the
+         * answer may not be stored.
+         */
+        static Entry fromResponse(HttpURLConnection connection, Entry previous, long now) {
+            String cacheControl = connection.getHeaderField("Cache-Control");
+            long maxAgeSeconds = -1;
+            boolean noCache = false;
+            if (cacheControl != null) {
+                for (String directive : cacheControl.split(",")) {
+                    directive = directive.trim().toLowerCase();
+                    if (directive.equals("no-store")) {
+                        return null;
+                    } else if (directive.equals("no-cache")) {
+                        noCache = true;
+                    } else if (directive.startsWith("max-age=")) {
+                        try {
+                            maxAgeSeconds = Long.parseLong(directive.substring("max-age=".length()));
+                        } catch (NumberFormatException e) {
+                            maxAgeSeconds = 0;
+                        }
+                    }
+                }
+            }
+
+            long expiresAt;
+            if (noCache) {
+                expiresAt = 0;
+            } else if (maxAgeSeconds >= 0) {
+                expiresAt = now + maxAgeSeconds * 1000L;
+            } else {
+                // 0 when there is no Expires header either, ie. always revalidate.
+                expiresAt = connection.getExpiration();
+            }
+
+            // A 304 may omit the validators, keep the ones we sent.
+            String etag = connection.getHeaderField("ETag");
+            String lastModified = connection.getHeaderField("Last-Modified");
+            if (previous != null) {
+                if (etag == null) etag = previous.etag;
+                if (lastModified == null) lastModified = previous.lastModified;
+            }
+
+            Entry entry = new Entry(etag, lastModified, expiresAt);
+            if (!entry.hasValidators() && !entry.isFresh(now)) {
+                return null;
+            }
+            return entry;
+        }
+    }
+
+    private final File mFile;
+    private final LinkedHashMap<String, Entry> mEntries =
+            new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                    if (size() > MAX_ENTRIES) {
+                        mEvictionCount++;
+                        return true;
+                    }
+                    return false;
+                }
+            };
+    private boolean mLoaded = false;
+
+    private int mHitCount;
+    private int mNotModifiedCount;
+    private int mMissCount;
+    private int mEvictionCount;
+
+    public static synchronized ForecastResponseCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ForecastResponseCache(
+                    new File(context.getApplicationContext().getCacheDir(), FILE_NAME));
+        }
+        return sInstance;
+    }
+
+    ForecastResponseCache(File file) {
+        mFile = file;
+    }
+
+    public synchronized Entry get(String key) {
+        load();
+        return mEntries.get(key);
+    }
+
+    public synchronized void put(String key, Entry entry) {
+        load();
+        mEntries.put(key, entry);
+        save();
+    }
+
+    public synchronized void remove(String key) {
+        load();
+        if (mEntries.remove(key) != null) {
+            save();
+        }
+    }
+
+    public synchronized void clear() {
+        mEntries.clear();
+        mLoaded = true;
+        save();
+    }
+
+    /**
+     * A fresh entry was used, no request was sent.
+     */
+    synchronized void recordHit() {
+        mHitCount++;
+    }
+
+    /**
+     * The server answered 304 to a conditional request.
+     */
+    synchronized void recordNotModified() {
+        mNotModifiedCount++;
+    }
+
+    /**
+     * A full body had to be downloaded.
+     */
+    synchronized void recordMiss() {
+        mMissCount++;
+    }
+
+    public synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    public synchronized int getNotModifiedCount() {
+        return mNotModifiedCount;
+    }
+
+    public synchronized int getMissCount() {
+        return mMissCount;
+    }
+
+    public synchronized int getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ForecastResponseCache[entries=" + mEntries.size() + ", hits=" + mHitCount
+                + ", notModified=" + mNotModifiedCount + ", misses=" + mMissCount
+                + ", evictions=" + mEvictionCount + "]";
+    }
+
+    private void load() {
+        if (mLoaded) {
+            return;
+        }
+        mLoaded = true;
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+            if (in.readInt() != FILE_VERSION) {
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String key = in.readUTF();
+                String etag = in.readBoolean() ? in.readUTF() : null;
+                String lastModified = in.readBoolean() ? in.readUTF() : null;
+                long expiresAt = in.readLong();
+                mEntries.put(key, new Entry(etag, lastModified, expiresAt));
+            }
+        } catch (FileNotFoundException e) {
+            // Nothing cached yet.
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Dropping unreadable cache index", e);
+            mEntries.clear();
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Error closing stream", e);
+                }
+            }
+        }
+    }
+
+    private void save() {
+        File tmp = new File(mFile.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            out.writeInt(FILE_VERSION);
+            out.writeInt(mEntries.size());
+            for (Map.Entry<String, Entry> mapEntry : mEntries.entrySet()) {
+                Entry entry = mapEntry.getValue();
+                out.writeUTF(mapEntry.getKey());
+                out.writeBoolean(entry.etag != null);
+                if (entry.etag != null) out.writeUTF(entry.etag);
+                out.writeBoolean(entry.lastModified != null);
+                if (entry.lastModified != null) out.writeUTF(entry.lastModified);
+                out.writeLong(entry.expiresAt);
+            }
+            out.close();
+            out = null;
+            if (!tmp.renameTo(mFile)) {
+                Log.w(LOG_TAG, "Could not replace " + mFile);
+            }
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Could not write cache index", e);
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Error closing stream", e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package com.example.barth.sunshine;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.util.Log;
+import android.util.SparseArray;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Binary copy of the preferred location's forecast, so the list has something to show
+ * on a cold start before the database is opened or the network touched.
+ *
+ * {@link WeatherProvider} writes it after every ingest of the preferred location, and
+ * {@link ForecastFragment} maps it on creation. The file is small and big-endian:
+ * <pre>
+ * int    magic "SNSH"
+ * short  format version
+ * long   written at, millis
+ * string location setting
+ * short  condition count, then per condition: int weather id, string short description
+ * short  day count, then per day: int epoch day, int weather id, float max, float min
+ * </pre>
+ * where a string is a short byte length followed by UTF-8 bytes. A file with another
+ * magic or version is ignored, and overwritten by the next ingest.
+ */
+public final class ForecastSnapshot {
+    private static final String LOG_TAG = ForecastSnapshot.class.getSimpleName();
+
+    static final String FILE_NAME = "forecast.snapshot";
+    private static final int MAGIC = 0x534e5348;
+    static final short VERSION = 1;
+
+    // The columns of ForecastFragment.FORECAST_COLUMNS, with their cursor names.
+    private static final String[] CURSOR_COLUMNS = {
+            WeatherContract.WeatherEntry._ID,
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING
+    };
+
+    private final String mLocationSetting;
+    private final long mWrittenAt;
+    private final SparseArray<String> mConditions;
+    private final int[] mDates;
+    private final int[] mWeatherIds;
+    private final float[] mMaxTemps;
+    private final float[] mMinTemps;
+
+    private ForecastSnapshot(String locationSetting, long writtenAt, SparseArray<String> conditions,
+                             int[] dates, int[] weatherIds, float[] maxTemps, float[] minTemps) {
+        mLocationSetting = locationSetting;
+        mWrittenAt = writtenAt;
+        mConditions = conditions;
+        mDates = dates;
+        mWeatherIds = weatherIds;
+        mMaxTemps = maxTemps;
+        mMinTemps = minTemps;
+    }
+
+    public String getLocationSetting() {
+        return mLocationSetting;
+    }
+
+    public long getWrittenAt() {
+        return mWrittenAt;
+    }
+
+    public int size() {
+        return mDates.length;
+    }
+
+    /**
+     * The days from {@code fromDate} on, laid out as {@link ForecastFragment#FORECAST_COLUMNS}.
+     * The short descriptions are lent to {@link ConditionDictionary} until it is loaded.
+     */
+    public Cursor toCursor(long fromDate) {
+        ConditionDictionary dictionary = ConditionDictionary.getInstance();
+        for (int i = 0; i < mConditions.size(); i++) {
+            dictionary.putProvisional(mConditions.keyAt(i), mConditions.valueAt(i));
+        }
+
+        MatrixCursor cursor = new MatrixCursor(CURSOR_COLUMNS, mDates.length);
+        for (int i = 0; i < mDates.length; i++) {
+            if (mDates[i] < fromDate) {
+                continue;
+            }
+            cursor.addRow(new Object[]{
+                    // Negative, so these rows never pass for database ones.
+                    -1L - i, mDates[i], mWeatherIds[i], mMaxTemps[i], mMinTemps[i], mLocationSetting});
+        }
+        return cursor;
+    }
+
+    private static File getFile(Context context) {
+        return new File(context.getFilesDir(), FILE_NAME);
+    }
+
+    /**
+     * Replaces the snapshot with {@code batch}. The new file is written aside and renamed
+     * over the old one, a reader never sees half of it.
+     */
+    static void write(Context context, ForecastBatch batch) throws IOException {
+        SparseArray<String> conditions = new SparseArray<String>();
+        for (int day = 0; day < batch.size(); day++) {
+            conditions.put(batch.getWeatherId(day), batch.getShortDesc(day));
+        }
+
+        byte[] location = encode(batch.getLocationSetting());
+        byte[][] descriptions = new byte[conditions.size()][];
+        int length = 4 + 2 + 8 + 2 + location.length + 2 + 2 + batch.size() * 16;
+        for (int i = 0; i < descriptions.length; i++) {
+            descriptions[i] = encode(conditions.valueAt(i));
+            length += 4 + 2 + descriptions[i].length;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        buffer.putInt(MAGIC);
+        buffer.putShort(VERSION);
+        buffer.putLong(System.currentTimeMillis());
+        buffer.putShort((short) location.length).put(location);
+        buffer.putShort((short) descriptions.length);
+        for (int i = 0; i < descriptions.length; i++) {
+            buffer.putInt(conditions.keyAt(i));
+            buffer.putShort((short) descriptions[i].length).put(descriptions[i]);
+        }
+        buffer.putShort((short) batch.size());
+        for (int day = 0; day < batch.size(); day++) {
+            buffer.putInt((int) batch.getDate(day));
+            buffer.putInt(batch.getWeatherId(day));
+            buffer.putFloat((float) batch.getMaxTemp(day));
+            buffer.putFloat((float) batch.getMinTemp(day));
+        }
+
+        File file = getFile(context);
+        File temp = new File(file.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(temp);
+        try {
+            out.write(buffer.array());
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Could not rename " + temp);
+        }
+    }
+
+    /**
+     * @return the stored snapshot, or null when there is none or it cannot be read.
+     */
+    public static ForecastSnapshot read(Context context) {
+        File file = getFile(context);
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            FileInputStream in = new FileInputStream(file);
+            try {
+                FileChannel channel = in.getChannel();
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                return decode(buffer);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Could not read the snapshot", e);
+        } catch (BufferUnderflowException e) {
+            Log.w(LOG_TAG, "Truncated snapshot", e);
+        } catch (NegativeArraySizeException e) {
+            Log.w(LOG_TAG, "Corrupt snapshot", e);
+        }
+        return null;
+    }
+
+    static ForecastSnapshot decode(ByteBuffer buffer) throws UnsupportedEncodingException {
+        if (buffer.remaining() < 6 || buffer.getInt() != MAGIC) {
+            Log.w(LOG_TAG, "Not a snapshot");
+            return null;
+        }
+        short version = buffer.getShort();
+        if (version != VERSION) {
+            Log.i(LOG_TAG, "Ignoring a version " + version + " snapshot");
+            return null;
+        }
+
+        long writtenAt = buffer.getLong();
+        String locationSetting = decodeString(buffer);
+
+        int conditionCount = buffer.getShort();
+        SparseArray<String> conditions = new SparseArray<String>(conditionCount);
+        for (int i = 0; i < conditionCount; i++) {
+            int weatherId = buffer.getInt();
+            conditions.put(weatherId, decodeString(buffer));
+        }
+
+        int dayCount = buffer.getShort();
+        int[] dates = new int[dayCount];
+        int[] weatherIds = new int[dayCount];
+        float[] maxTemps = new float[dayCount];
+        float[] minTemps = new float[dayCount];
+        for (int i = 0; i < dayCount; i++) {
+            dates[i] = buffer.getInt();
+            weatherIds[i] = buffer.getInt();
+            maxTemps[i] = buffer.getFloat();
+            minTemps[i] = buffer.getFloat();
+        }
+        return new ForecastSnapshot(locationSetting, writtenAt, conditions,
+                dates, weatherIds, maxTemps, minTemps);
+    }
+
+    private static byte[] encode(String s) throws UnsupportedEncodingException {
+        byte[] bytes = s.getBytes("UTF-8");
+        if (bytes.length > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("String too long for a snapshot: " + bytes.length);
+        }
+        return bytes;
+    }
+
+    private static String decodeString(ByteBuffer buffer) throws UnsupportedEncodingException {
+        byte[] bytes = new byte[buffer.getShort()];
+        buffer.get(bytes);
+        return new String(bytes, "UTF-8");
+    }
+}
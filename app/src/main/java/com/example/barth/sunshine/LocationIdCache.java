@@ -0,0 +1,116 @@
+package com.example.barth.sunshine;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.util.HashMap;
+
+/**
+ * Row ids of the location table by location setting, so an ingest resolves known
+ * cities without a query.
+ */
+public class LocationIdCache {
+
+    private static final LocationIdCache sInstance = new LocationIdCache();
+
+    private final HashMap<String, Long> mIds = new HashMap<String, Long>();
+
+    // See Pending.
+    private int mGeneration = 0;
+
+    public static LocationIdCache getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * @return the row id of {@code locationSetting}, or -1 when it is not cached.
+     */
+    public synchronized long get(String locationSetting) {
+        Long id = mIds.get(locationSetting);
+        return id == null ? -1 : id;
+    }
+
+    public synchronized void put(String locationSetting, long id) {
+        mIds.put(locationSetting, id);
+    }
+
+    /**
+     * Ids looked up or inserted inside a transaction, held back from the cache until it
+     * commits: a rolled back insert must not leave the id of a row that never existed.
+     *
+     * The caches of {@link WeatherProvider} share this protocol. Writes reach a cache
+     * only through a {@code publish()} made after the commit, as here and in
+     * {@link ConditionDictionary.Writer}. Loads read the database outside the lock: they
+     * note the generation first, and drop what they read when an invalidation bumped it
+     * meanwhile, so a load racing with a write or a delete never stores stale rows.
+     */
+    static class Pending {
+        private final HashMap<String, Long> mIds = new HashMap<String, Long>();
+
+        /**
+         * @return the row id of {@code locationSetting}, or -1 when it is not pending.
+         */
+        long get(String locationSetting) {
+            Long id = mIds.get(locationSetting);
+            return id == null ? -1 : id;
+        }
+
+        void put(String locationSetting, long id) {
+            mIds.put(locationSetting, id);
+        }
+
+        /**
+         * Hands the ids to the cache, after the commit.
+         */
+        void publish() {
+            LocationIdCache cache = getInstance();
+            synchronized (cache) {
+                cache.mIds.putAll(mIds);
+            }
+        }
+    }
+
+    /**
+     * Forgets every entry, for writes that may have removed or renamed locations.
+     */
+    public synchronized void invalidate() {
+        mIds.clear();
+        mGeneration++;
+    }
+
+    public synchronized int size() {
+        return mIds.size();
+    }
+
+    /**
+     * Loads every row of the location table.
+     */
+    void warm(SQLiteDatabase db) {
+        int generation;
+        synchronized (this) {
+            generation = mGeneration;
+        }
+
+        HashMap<String, Long> ids = new HashMap<String, Long>();
+        Cursor cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                new String[]{WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+                        WeatherContract.LocationEntry._ID},
+                null, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                ids.put(cursor.getString(0), cursor.getLong(1));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        synchronized (this) {
+            if (generation == mGeneration) {
+                // Entries added meanwhile by inserts are at least as recent.
+                ids.putAll(mIds);
+                mIds.clear();
+                mIds.putAll(ids);
+            }
+        }
+    }
+}
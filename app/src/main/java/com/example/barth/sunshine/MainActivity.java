@@ -17,6 +17,7 @@ public class MainActivity extends ActionBarActivity {
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        StartupTrace.mark(StartupTrace.Phase.ACTIVITY_CREATED);
         setContentView(R.layout.activity_main);
         if (savedInstanceState == null) {
             Log.i(MainActivity.class.getName(),"OK");
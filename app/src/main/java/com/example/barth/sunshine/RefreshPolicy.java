@@ -0,0 +1,87 @@
+package com.example.barth.sunshine;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Last successful fetch time of every location and the refreshes in flight, from
+ * which it picks the locations worth a network refresh.
+ */
+public class RefreshPolicy {
+
+    private static final String PREFS_NAME = "refresh_policy";
+
+    private static RefreshPolicy sInstance;
+
+    private final Context mContext;
+    private final SharedPreferences mFetchTimes;
+    private final Set<String> mInFlight = new HashSet<String>();
+
+    public static synchronized RefreshPolicy getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new RefreshPolicy(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private RefreshPolicy(Context context) {
+        mContext = context;
+        mFetchTimes = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * @return the wall clock time of the last successful fetch, or 0 when there was none.
+     */
+    public long getLastFetch(String locationSetting) {
+        return mFetchTimes.getLong(locationSetting, 0);
+    }
+
+    public boolean isStale(String locationSetting, long now) {
+        long lastFetch = getLastFetch(locationSetting);
+        // A clock set back makes the age negative, refresh rather than trust it.
+        return now < lastFetch || now - lastFetch >= Utility.getRefreshIntervalMillis(mContext);
+    }
+
+    /**
+     * Picks the locations to refresh and marks them in flight, until {@link #end}.
+     * With {@code force} every location not in flight is picked, stale or not.
+     */
+    public synchronized Set<String> begin(Collection<String> locationSettings, boolean force) {
+        long now = System.currentTimeMillis();
+        Set<String> due = new LinkedHashSet<String>();
+        for (String locationSetting : locationSettings) {
+            if (!mInFlight.contains(locationSetting) && (force || isStale(locationSetting, now))) {
+                mInFlight.add(locationSetting);
+                due.add(locationSetting);
+            }
+        }
+        return due;
+    }
+
+    public synchronized void end(String locationSetting) {
+        mInFlight.remove(locationSetting);
+    }
+
+    public synchronized boolean isInFlight(String locationSetting) {
+        return mInFlight.contains(locationSetting);
+    }
+
+    /**
+     * Records that {@code locationSetting} was fetched and stored, or found unchanged.
+     */
+    public void recordSuccess(String locationSetting, long now) {
+        mFetchTimes.edit().putLong(locationSetting, now).apply();
+    }
+
+    /**
+     * Forgets the last fetch of {@code locationSetting}, which is stale from then on.
+     */
+    public void forget(String locationSetting) {
+        mFetchTimes.edit().remove(locationSetting).apply();
+    }
+}
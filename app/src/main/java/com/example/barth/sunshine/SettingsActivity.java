@@ -18,6 +18,8 @@ implements Preference.OnPreferenceChangeListener{
 
         bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_location_key)));
         bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_units_key)));
+        bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_refresh_interval_key)));
+        bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_retention_key)));
 
     }
 
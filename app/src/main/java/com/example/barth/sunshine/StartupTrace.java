@@ -0,0 +1,93 @@
+package com.example.barth.sunshine;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.PrintWriter;
+
+/**
+ * Timings of the startup phases of the process, from the moment the application is
+ * attached to its first forecast on screen.
+ *
+ * Each phase is recorded once, the first time it is reached, as an offset from
+ * {@link Phase#PROCESS_START}. Phases are logged as they happen and the whole trace is
+ * printed by {@link WeatherProvider}'s dump:
+ * {@code adb shell dumpsys activity provider com.example.barth.sunshine/.WeatherProvider}.
+ */
+public final class StartupTrace {
+    private static final String LOG_TAG = StartupTrace.class.getSimpleName();
+
+    public enum Phase {
+        PROCESS_START,
+        PROVIDER_CREATED,
+        APPLICATION_CREATED,
+        PREFERENCES_LOADED,
+        ACTIVITY_CREATED,
+        FIRST_FRAME,
+        FIRST_DATA,
+        DATABASE_OPENED,
+        FIRST_DATABASE_DATA
+    }
+
+    private static final long NOT_REACHED = -1;
+
+    private static final long[] sTimes = new long[Phase.values().length];
+    private static String sFirstDataSource;
+
+    static {
+        for (int i = 0; i < sTimes.length; i++) {
+            sTimes[i] = NOT_REACHED;
+        }
+    }
+
+    private StartupTrace() {
+    }
+
+    public static void mark(Phase phase) {
+        mark(phase, null);
+    }
+
+    /**
+     * Records {@code phase} unless it was reached before.
+     *
+     * @param detail what reached it, such as the source of the first data, or null.
+     */
+    public static synchronized void mark(Phase phase, String detail) {
+        if (sTimes[phase.ordinal()] != NOT_REACHED) {
+            return;
+        }
+        long now = SystemClock.uptimeMillis();
+        if (phase == Phase.PROCESS_START) {
+            sTimes[phase.ordinal()] = now;
+            return;
+        }
+        long start = sTimes[Phase.PROCESS_START.ordinal()];
+        // A process started without the application class, by instrumentation.
+        sTimes[phase.ordinal()] = start == NOT_REACHED ? 0 : now - start;
+        if (phase == Phase.FIRST_DATA) {
+            sFirstDataSource = detail;
+        }
+        Log.i(LOG_TAG, phase + " at " + sTimes[phase.ordinal()] + " ms"
+                + (detail != null ? " (" + detail + ")" : ""));
+    }
+
+    /**
+     * @return the offset of {@code phase} from the process start, or -1 when not reached.
+     */
+    public static synchronized long getTime(Phase phase) {
+        return phase == Phase.PROCESS_START ? 0 : sTimes[phase.ordinal()];
+    }
+
+    public static synchronized void dump(PrintWriter writer) {
+        writer.println("Startup:");
+        for (Phase phase : Phase.values()) {
+            if (phase == Phase.PROCESS_START) {
+                continue;
+            }
+            long time = sTimes[phase.ordinal()];
+            writer.print("  " + phase + ": " + (time == NOT_REACHED ? "not reached" : time + " ms"));
+            writer.println(phase == Phase.FIRST_DATA && sFirstDataSource != null
+                    ? " (" + sFirstDataSource + ")" : "");
+        }
+    }
+}
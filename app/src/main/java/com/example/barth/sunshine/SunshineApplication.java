@@ -0,0 +1,34 @@
+package com.example.barth.sunshine;
+
+import android.app.Application;
+import android.content.Context;
+import android.preference.PreferenceManager;
+
+/**
+ * Starts the {@link StartupTrace} and loads the preferences in the background, so the
+ * first read from the main thread does not wait for the file.
+ */
+public class SunshineApplication extends Application {
+
+    @Override
+    protected void attachBaseContext(Context base) {
+        // Runs before the content providers are created.
+        StartupTrace.mark(StartupTrace.Phase.PROCESS_START);
+        super.attachBaseContext(base);
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                PreferenceManager.getDefaultSharedPreferences(SunshineApplication.this);
+                // Reads the units, and keeps the first list bind from doing it.
+                ForecastFormatter.getInstance(SunshineApplication.this);
+                StartupTrace.mark(StartupTrace.Phase.PREFERENCES_LOADED);
+            }
+        }, "Preferences preload").start();
+        StartupTrace.mark(StartupTrace.Phase.APPLICATION_CREATED);
+    }
+}
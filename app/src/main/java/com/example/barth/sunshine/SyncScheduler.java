@@ -0,0 +1,111 @@
+package com.example.barth.sunshine;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.util.Random;
+
+/**
+ * Schedules the background refreshes of {@link WeatherSyncService}.
+ *
+ * There is a single alarm, so every tracked location is refreshed in the same run.
+ * It does not wake the device up: it goes off with the next wake-up the system has
+ * anyway, which also lets the platform batch it with the alarms of other apps. After
+ * a failed run the next one comes sooner, then exponentially later, with random
+ * jitter so many devices failing together do not retry together.
+ *
+ * The next run time and the failure count are kept in their own preferences file.
+ * A restarted process keeps the schedule it finds instead of refreshing right away.
+ */
+public class SyncScheduler {
+    private static final String LOG_TAG = SyncScheduler.class.getSimpleName();
+
+    private static final String PREFS_NAME = "sync_scheduler";
+    private static final String PREF_NEXT_RUN = "next_run";
+    private static final String PREF_FAILURES = "failures";
+
+    static final long FIRST_RETRY_DELAY_MS = 60 * 1000;
+    // Whatever the preference says, the service never runs more often than this.
+    static final long MIN_INTERVAL_MS = 15 * 60 * 1000;
+    // Missed runs, such as after a reboot, are spread over this window.
+    private static final long CATCH_UP_WINDOW_MS = 5 * 60 * 1000;
+
+    private static final Random sRandom = new Random();
+
+    private SyncScheduler() {
+    }
+
+    /**
+     * Arms the alarm for the stored next run, or for a full interval from now when
+     * nothing is stored. Safe to call as often as needed, the alarm is replaced.
+     */
+    public static synchronized void ensureScheduled(Context context) {
+        SharedPreferences state = getState(context);
+        long now = System.currentTimeMillis();
+        long interval = getInterval(context);
+        long nextRun = state.getLong(PREF_NEXT_RUN, 0);
+
+        if (nextRun == 0 || nextRun > now + interval) {
+            // First start, or the interval preference was shortened.
+            nextRun = now + interval;
+        } else if (nextRun < now) {
+            nextRun = now + (long) (sRandom.nextDouble() * CATCH_UP_WINDOW_MS);
+        }
+        setNextRun(context, state, nextRun);
+    }
+
+    /**
+     * Schedules the run after the one that just ended.
+     *
+     * @param succeeded false when at least one location could not be refreshed.
+     */
+    public static synchronized void onRunFinished(Context context, boolean succeeded) {
+        SharedPreferences state = getState(context);
+        long interval = getInterval(context);
+        int failures = succeeded ? 0 : state.getInt(PREF_FAILURES, 0) + 1;
+
+        long delay = interval;
+        if (failures > 0) {
+            delay = Math.min(interval, FIRST_RETRY_DELAY_MS << Math.min(failures - 1, 20));
+            // "Equal jitter": somewhere between half the delay and the full delay.
+            delay = delay / 2 + (long) (sRandom.nextDouble() * (delay / 2));
+        }
+
+        state.edit().putInt(PREF_FAILURES, failures).apply();
+        setNextRun(context, state, System.currentTimeMillis() + delay);
+        Log.v(LOG_TAG, "Next sync in " + delay / 1000 + " s after " + failures + " failures");
+    }
+
+    public static int getFailureCount(Context context) {
+        return getState(context).getInt(PREF_FAILURES, 0);
+    }
+
+    public static long getNextRun(Context context) {
+        return getState(context).getLong(PREF_NEXT_RUN, 0);
+    }
+
+    private static long getInterval(Context context) {
+        return Math.max(MIN_INTERVAL_MS, Utility.getRefreshIntervalMillis(context));
+    }
+
+    private static void setNextRun(Context context, SharedPreferences state, long nextRun) {
+        state.edit().putLong(PREF_NEXT_RUN, nextRun).apply();
+
+        AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        // RTC rather than RTC_WAKEUP: a sleeping device waits for its next wake-up.
+        alarmManager.set(AlarmManager.RTC, nextRun, buildAlarmIntent(context));
+    }
+
+    private static PendingIntent buildAlarmIntent(Context context) {
+        Intent intent = new Intent(context, WeatherSyncService.AlarmReceiver.class);
+        return PendingIntent.getBroadcast(context, 0, intent, PendingIntent.FLAG_UPDATE_CURRENT);
+    }
+
+    private static SharedPreferences getState(Context context) {
+        return context.getApplicationContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+}
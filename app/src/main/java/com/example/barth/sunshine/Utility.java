@@ -0,0 +1,92 @@
+package com.example.barth.sunshine;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Preference and formatting helpers shared by the UI and the refresh code.
+ */
+public class Utility {
+    private static final String LOG_TAG = Utility.class.getSimpleName();
+
+    /**
+     * Separator of the tracked locations preference. Location settings such as
+     * "Paris,fr" may contain commas, so entries are stored one per line.
+     */
+    private static final String TRACKED_LOCATIONS_SEPARATOR = "\n";
+
+    public static String getPreferredLocation(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        return prefs.getString(context.getString(R.string.pref_location_key),
+                context.getString(R.string.pref_location_default));
+    }
+
+    /**
+     * Age after which a stored forecast is fetched again.
+     */
+    public static long getRefreshIntervalMillis(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        String minutes = prefs.getString(context.getString(R.string.pref_refresh_interval_key),
+                context.getString(R.string.pref_refresh_interval_default));
+        try {
+            return Math.max(0, Long.parseLong(minutes)) * 60 * 1000;
+        } catch (NumberFormatException e) {
+            Log.d(LOG_TAG, "Refresh interval not understood  :" + minutes);
+            return Long.parseLong(context.getString(R.string.pref_refresh_interval_default)) * 60 * 1000;
+        }
+    }
+
+    /**
+     * Number of past days whose forecasts are kept, today excluded.
+     */
+    public static int getRetentionDays(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        String days = prefs.getString(context.getString(R.string.pref_retention_key),
+                context.getString(R.string.pref_retention_default));
+        try {
+            return Math.max(0, Integer.parseInt(days));
+        } catch (NumberFormatException e) {
+            Log.d(LOG_TAG, "Retention not understood  :" + days);
+            return Integer.parseInt(context.getString(R.string.pref_retention_default));
+        }
+    }
+
+    /**
+     * Every location that should be kept fresh: the preferred one first, followed
+     * by the extra entries of the tracked locations preference.
+     */
+    public static Set<String> getTrackedLocations(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        Set<String> locations = new LinkedHashSet<String>();
+        locations.add(getPreferredLocation(context));
+
+        String tracked = prefs.getString(context.getString(R.string.pref_tracked_locations_key), "");
+        for (String location : tracked.split(TRACKED_LOCATIONS_SEPARATOR)) {
+            location = location.trim();
+            if (location.length() > 0) {
+                locations.add(location);
+            }
+        }
+        return locations;
+    }
+
+    /**
+     * Turns an epoch day as stored in the database into something readable, such as "Sat May 09".
+     */
+    public static String getReadableDateString(Context context, long epochDay) {
+        return ForecastFormatter.getInstance(context).formatDate(epochDay);
+    }
+
+    /**
+     * Prepare the weather high/lows for presentation. List rows should rather format
+     * into a reused buffer with {@link ForecastFormatter#formatHighLows(double, double, char[])}.
+     */
+    public static String formatHighLows(Context context, double high, double low) {
+        return ForecastFormatter.getInstance(context).formatHighLows(high, low);
+    }
+}
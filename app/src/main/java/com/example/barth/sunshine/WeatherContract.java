@@ -4,32 +4,93 @@ package com.example.barth.sunshine;
 import android.content.ContentUris;
 import android.net.Uri;
 import android.provider.BaseColumns;
-import android.text.format.Time;
 
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.util.TimeZone;
 
 /**
  * Created by barth on 19/04/15.
  */
 public class WeatherContract {
 
-    public static final String CONTENT_AUTHORITY = "com.example.android.sunshine.app";
+    public static final String CONTENT_AUTHORITY = "com.example.barth.sunshine.app";
 
     public static final Uri BASE_CONTENT_URI = Uri.parse("content://"+CONTENT_AUTHORITY);
 
     public static final String PATH_WEATHER = "weather";
     public static final String PATH_LOCATION = "location";
 
-    public static final String DATE_FORMAT = "yyyyMMdd";
+    public static final long DAY_IN_MILLIS = 24L * 60 * 60 * 1000;
+
+    /**
+     * Provider method writing refreshes atomically: the location and weather rows of
+     * every {@link ForecastBatch} of {@link #EXTRA_BATCHES}, in one transaction. The
+     * returned bundle holds {@link #EXTRA_ROWS_CHANGED}.
+     */
+    public static final String METHOD_INGEST = "ingest";
+    public static final String EXTRA_BATCHES = "batches";
+    public static final String EXTRA_ROWS_CHANGED = "rows_changed";
+
+    /**
+     * Provider method deleting the weather rows of days before {@link #EXTRA_OLDEST_DAY}
+     * and the locations missing from {@link #EXTRA_KEEP_LOCATIONS}, with their weather.
+     * The returned bundle holds {@link #EXTRA_ROWS_DELETED}, {@link #EXTRA_LOCATIONS_DELETED}
+     * and the settings of those locations in {@link #EXTRA_PURGED_LOCATIONS}.
+     */
+    public static final String METHOD_PURGE = "purge";
+    public static final String EXTRA_OLDEST_DAY = "oldest_day";
+    public static final String EXTRA_KEEP_LOCATIONS = "keep_locations";
+    public static final String EXTRA_ROWS_DELETED = "rows_deleted";
+    public static final String EXTRA_LOCATIONS_DELETED = "locations_deleted";
+    public static final String EXTRA_PURGED_LOCATIONS = "purged_locations";
+
+    /**
+     * Provider method handing at most {@link #EXTRA_MAX_PAGES} free database pages back
+     * to the file system, so one call stays short. The returned bundle holds
+     * {@link #EXTRA_PAGES_FREED}, {@link #EXTRA_FREE_PAGES} still left and
+     * {@link #EXTRA_PAGE_SIZE}, or {@link #EXTRA_NEEDS_VACUUM} when the file cannot be
+     * compacted in slices.
+     */
+    public static final String METHOD_COMPACT = "compact";
+    public static final String EXTRA_MAX_PAGES = "max_pages";
+    public static final String EXTRA_PAGES_FREED = "pages_freed";
+    public static final String EXTRA_FREE_PAGES = "free_pages";
+    public static final String EXTRA_PAGE_SIZE = "page_size";
+    public static final String EXTRA_NEEDS_VACUUM = "needs_vacuum";
+
+    /**
+     * Provider method rewriting the whole file once, in the mode {@link #METHOD_COMPACT}
+     * needs. The returned bundle holds {@link #EXTRA_PAGES_FREED} and {@link #EXTRA_PAGE_SIZE}.
+     */
+    public static final String METHOD_VACUUM = "vacuum";
+
+    /**
+     * Dates are stored as the number of days since 1970-01-01 UTC, so the provider
+     * compares and sorts them as integers. None of the helpers below allocate.
+     */
+    public static long toEpochDay(long millis) {
+        long day = millis / DAY_IN_MILLIS;
+        if (millis % DAY_IN_MILLIS < 0) {
+            day--;
+        }
+        return day;
+    }
 
-    public static long normalizeDate(long startDate){
-        Time time = new Time();
-        time.setToNow();
+    public static long epochDayToMillis(long epochDay) {
+        return epochDay * DAY_IN_MILLIS;
+    }
 
-        int julianDay = Time.getJulianDay(startDate,time.gmtoff);
+    /**
+     * @return the UTC midnight of the day {@code millis} falls in.
+     */
+    public static long normalizeDate(long millis) {
+        return epochDayToMillis(toEpochDay(millis));
+    }
 
-        return time.setJulianDay(julianDay);
+    /**
+     * Epoch day of {@code millis} in the default time zone, for "today" in the UI.
+     */
+    public static long toLocalEpochDay(long millis) {
+        return toEpochDay(millis + TimeZone.getDefault().getOffset(millis));
     }
 
     public static final class LocationEntry implements BaseColumns{
@@ -59,6 +120,17 @@ public class WeatherContract {
 
     }
 
+    /**
+     * Weather conditions, one row per OpenWeatherMap condition id, whose {@link #_ID}
+     * is the {@link WeatherEntry#COLUMN_WEATHER_ID} of the weather rows.
+     */
+    public static final class ConditionEntry implements BaseColumns {
+
+        public static final String TABLE_NAME = "condition";
+
+        public static final String COLUMN_SHORT_DESC = "short_desc";
+    }
+
     public static final class WeatherEntry implements BaseColumns{
 
         public static final Uri CONTENT_URI =
@@ -75,6 +147,10 @@ public class WeatherContract {
         public static final String COLUMN_LOC_KEY = "location_id";
         public static final String COLUMN_DATE = "date";
         public static final String COLUMN_WEATHER_ID = "weather_id";
+        /**
+         * Only accepted by inserts: the description is stored once per condition in
+         * {@link ConditionEntry}, read it back through {@link ConditionDictionary}.
+         */
         public static final String COLUMN_SHORT_DESC = "short_desc";
         public static final String COLUMN_MIN_TEMP = "min";
         public static final String COLUMN_MAX_TEMP = "max";
@@ -89,27 +165,38 @@ public class WeatherContract {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
 
+        public static Uri buildWeatherLocation(String locationSetting) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).build();
+        }
+
+        public static Uri buildWeatherLocationWithStartDate(String locationSetting, long startDate) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendQueryParameter(COLUMN_DATE, Long.toString(startDate)).build();
+        }
+
+        public static Uri buildWeatherLocationWithDate(String locationSetting, long date) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendPath(Long.toString(date)).build();
+        }
+
         public static String getLocationSettingFromUri(Uri uri) {
             return uri.getPathSegments().get(1);
         }
 
-        public static String getDateFromUri(Uri uri) {
-            return uri.getPathSegments().get(2);
+        public static long getDateFromUri(Uri uri) {
+            return Long.parseLong(uri.getPathSegments().get(2));
         }
 
-        public static String getStartDateFromUri(Uri uri) {
-            return uri.getQueryParameter(COLUMN_DATE);
+        /**
+         * @return the start date of the uri, or -1 when it has none.
+         */
+        public static long getStartDateFromUri(Uri uri) {
+            String startDate = uri.getQueryParameter(COLUMN_DATE);
+            return startDate == null || startDate.length() == 0 ? -1 : Long.parseLong(startDate);
         }
 
 
 
 
-    }
-
-    public static String getDbDateString(Date date) {
-        // Because the API returns a unix timestamp (measured in seconds),
-        // it must be converted to milliseconds in order to be converted to valid date.
-        SimpleDateFormat sdf = new SimpleDateFormat(DATE_FORMAT);
-        return sdf.format(date);
     }
 }
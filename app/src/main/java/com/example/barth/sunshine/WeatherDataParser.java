@@ -6,16 +6,267 @@ import org.json.JSONObject;
 
 /**
  * Created by barth on 06/04/15.
+ *
+ * Reads the days of an OpenWeatherMap daily forecast body held as a string.
+ *
+ * {@link #parse(String)} decodes the whole body once into a {@link Forecast}, whose
+ * getters are array reads. {@link #parseLazily(String)} only finds where each day
+ * starts and ends, and a {@link LazyForecast} decodes a day the first time one of its
+ * values is asked for.
  */
 public class WeatherDataParser {
 
-    public static double getMaxTemperatureForDay(String weatherJsonStr, int dayIndex) throws JSONException{
+    private static final String OWM_LIST = "list";
+    private static final String OWM_DATETIME = "dt";
+    private static final String OWM_TEMPERATURE = "temp";
+    private static final String OWM_MAX = "max";
+    private static final String OWM_MIN = "min";
+    private static final String OWM_HUMIDITY = "humidity";
+    private static final String OWM_PRESSURE = "pressure";
+    private static final String OWM_WINDSPEED = "speed";
+    private static final String OWM_WIND_DIRECTION = "deg";
+
+    /**
+     * Every day of a body, decoded. Immutable, so it can be shared between threads.
+     */
+    public static final class Forecast {
+        private final long[] mDateTimes;
+        private final double[] mMaxTemperatures;
+        private final double[] mMinTemperatures;
+        private final double[] mHumidities;
+        private final double[] mPressures;
+        private final double[] mWindSpeeds;
+        private final double[] mWindDirections;
+
+        private Forecast(JSONArray days) throws JSONException {
+            int size = days.length();
+            mDateTimes = new long[size];
+            mMaxTemperatures = new double[size];
+            mMinTemperatures = new double[size];
+            mHumidities = new double[size];
+            mPressures = new double[size];
+            mWindSpeeds = new double[size];
+            mWindDirections = new double[size];
+            for (int i = 0; i < size; i++) {
+                JSONObject dayInfo = days.getJSONObject(i);
+                JSONObject temperatureInfo = dayInfo.getJSONObject(OWM_TEMPERATURE);
+                mDateTimes[i] = dayInfo.getLong(OWM_DATETIME);
+                mMaxTemperatures[i] = temperatureInfo.getDouble(OWM_MAX);
+                mMinTemperatures[i] = temperatureInfo.getDouble(OWM_MIN);
+                mHumidities[i] = dayInfo.getDouble(OWM_HUMIDITY);
+                mPressures[i] = dayInfo.getDouble(OWM_PRESSURE);
+                mWindSpeeds[i] = dayInfo.getDouble(OWM_WINDSPEED);
+                mWindDirections[i] = dayInfo.getDouble(OWM_WIND_DIRECTION);
+            }
+        }
+
+        public int size() {
+            return mDateTimes.length;
+        }
+
+        /**
+         * @return the unix timestamp of the day, in seconds.
+         */
+        public long getDateTime(int day) {
+            return mDateTimes[day];
+        }
+
+        public double getMaxTemperature(int day) {
+            return mMaxTemperatures[day];
+        }
+
+        public double getMinTemperature(int day) {
+            return mMinTemperatures[day];
+        }
+
+        public double getHumidity(int day) {
+            return mHumidities[day];
+        }
+
+        public double getPressure(int day) {
+            return mPressures[day];
+        }
+
+        public double getWindSpeed(int day) {
+            return mWindSpeeds[day];
+        }
+
+        public double getWindDirection(int day) {
+            return mWindDirections[day];
+        }
+    }
+
+    /**
+     * The days of a body, each decoded on first access. Only a malformed day can make a
+     * getter throw, and only the first time that day is read.
+     */
+    public static final class LazyForecast {
+        private final String mJson;
+        // Start and end (exclusive) offsets of day i at 2 * i and 2 * i + 1.
+        private final int[] mBounds;
+        private final JSONObject[] mDays;
+
+        private LazyForecast(String json, int[] bounds, int size) {
+            mJson = json;
+            mBounds = bounds;
+            mDays = new JSONObject[size];
+        }
+
+        public int size() {
+            return mDays.length;
+        }
+
+        private synchronized JSONObject getDay(int day) throws JSONException {
+            JSONObject dayInfo = mDays[day];
+            if (dayInfo == null) {
+                dayInfo = new JSONObject(mJson.substring(mBounds[2 * day], mBounds[2 * day + 1]));
+                mDays[day] = dayInfo;
+            }
+            return dayInfo;
+        }
+
+        /**
+         * @return the unix timestamp of the day, in seconds.
+         */
+        public long getDateTime(int day) throws JSONException {
+            return getDay(day).getLong(OWM_DATETIME);
+        }
 
-        JSONObject weather = new JSONObject(weatherJsonStr);
-        JSONArray days =    weather.getJSONArray("list");
-        JSONObject dayInfo = days.getJSONObject(dayIndex);
-        JSONObject temperatureInfo = dayInfo.getJSONObject("temp");
+        public double getMaxTemperature(int day) throws JSONException {
+            return getDay(day).getJSONObject(OWM_TEMPERATURE).getDouble(OWM_MAX);
+        }
 
-        return temperatureInfo.getDouble("max");
+        public double getMinTemperature(int day) throws JSONException {
+            return getDay(day).getJSONObject(OWM_TEMPERATURE).getDouble(OWM_MIN);
+        }
+
+        public double getHumidity(int day) throws JSONException {
+            return getDay(day).getDouble(OWM_HUMIDITY);
+        }
+
+        public double getPressure(int day) throws JSONException {
+            return getDay(day).getDouble(OWM_PRESSURE);
+        }
+
+        public double getWindSpeed(int day) throws JSONException {
+            return getDay(day).getDouble(OWM_WINDSPEED);
+        }
+
+        public double getWindDirection(int day) throws JSONException {
+            return getDay(day).getDouble(OWM_WIND_DIRECTION);
+        }
+    }
+
+    /**
+     * Decodes every day of {@code weatherJsonStr} in one pass.
+     */
+    public static Forecast parse(String weatherJsonStr) throws JSONException {
+        return new Forecast(new JSONObject(weatherJsonStr).getJSONArray(OWM_LIST));
+    }
+
+    /**
+     * Finds the days of {@code weatherJsonStr} without decoding any. The scan allocates
+     * nothing but the offsets, and checks that brackets and strings are balanced.
+     */
+    public static LazyForecast parseLazily(String weatherJsonStr) throws JSONException {
+        String json = weatherJsonStr;
+        int[] bounds = new int[32];
+        int size = 0;
+        int depth = 0;
+        // Depth inside the "list" array, 0 until it is found.
+        int listDepth = 0;
+        boolean expectList = false;
+
+        for (int i = 0, length = json.length(); i < length; i++) {
+            char c = json.charAt(i);
+            switch (c) {
+                case '"':
+                    if (expectList) {
+                        throw new JSONException("\"" + OWM_LIST + "\" is not an array");
+                    }
+                    int end = skipString(json, i);
+                    if (depth == 1 && listDepth == 0 && end - i - 1 == OWM_LIST.length()
+                            && json.regionMatches(i + 1, OWM_LIST, 0, OWM_LIST.length())) {
+                        // A key of the root object, unless it is a string value.
+                        int next = skipWhitespace(json, end + 1);
+                        expectList = next < length && json.charAt(next) == ':';
+                    }
+                    i = end;
+                    break;
+                case '{':
+                case '[':
+                    depth++;
+                    if (expectList) {
+                        expectList = false;
+                        if (c != '[') {
+                            throw new JSONException("\"" + OWM_LIST + "\" is not an array");
+                        }
+                        listDepth = depth;
+                    } else if (listDepth != 0 && depth == listDepth + 1) {
+                        if (size * 2 == bounds.length) {
+                            int[] grown = new int[bounds.length * 2];
+                            System.arraycopy(bounds, 0, grown, 0, bounds.length);
+                            bounds = grown;
+                        }
+                        bounds[size * 2] = i;
+                    }
+                    break;
+                case '}':
+                case ']':
+                    if (listDepth != 0 && depth == listDepth + 1) {
+                        bounds[size * 2 + 1] = i + 1;
+                        size++;
+                    } else if (listDepth != 0 && depth == listDepth) {
+                        // The list is closed, the rest of the body is not needed.
+                        return new LazyForecast(json, bounds, size);
+                    }
+                    depth--;
+                    if (depth < 0) {
+                        throw new JSONException("Unbalanced " + c + " at " + i);
+                    }
+                    break;
+                default:
+                    if (expectList && c != ':' && !Character.isWhitespace(c)) {
+                        throw new JSONException("\"" + OWM_LIST + "\" is not an array");
+                    }
+                    break;
+            }
+        }
+        throw new JSONException(listDepth == 0 ? "No \"" + OWM_LIST + "\" array" : "Unterminated list");
+    }
+
+    /**
+     * @return the index of the quote closing the string opened at {@code start}.
+     */
+    private static int skipString(String json, int start) throws JSONException {
+        for (int i = start + 1, length = json.length(); i < length; i++) {
+            char c = json.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == '"') {
+                return i;
+            }
+        }
+        throw new JSONException("Unterminated string at " + start);
+    }
+
+    private static int skipWhitespace(String json, int start) {
+        int i = start;
+        while (i < json.length() && Character.isWhitespace(json.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Reads one value without decoding the other days. To read several, parse the body
+     * once with {@link #parse(String)} or {@link #parseLazily(String)}.
+     */
+    public static double getMaxTemperatureForDay(String weatherJsonStr, int dayIndex) throws JSONException{
+        LazyForecast forecast = parseLazily(weatherJsonStr);
+        if (dayIndex < 0 || dayIndex >= forecast.size()) {
+            throw new JSONException("Index " + dayIndex + " out of range [0.." + forecast.size() + ")");
+        }
+        return forecast.getMaxTemperature(dayIndex);
     }
 }
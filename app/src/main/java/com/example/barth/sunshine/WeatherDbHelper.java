@@ -1,39 +1,140 @@
 package com.example.barth.sunshine;
 
+import android.annotation.TargetApi;
 import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
+import android.util.Log;
+
+import java.io.File;
 
 /**
  * Created by barth on 23/04/15.
  */
 public class WeatherDbHelper extends SQLiteOpenHelper {
+    private static final String LOG_TAG = WeatherDbHelper.class.getSimpleName();
 
-    private static final int DATABASE_VERSION = 2;
+    static final int DATABASE_VERSION = 5;
 
     static final String DATABASE_NAME = "weather.db";
 
+    // Value of PRAGMA auto_vacuum in incremental mode.
+    static final long AUTO_VACUUM_INCREMENTAL = 2;
+
+    static final String WEATHER_LOCATION_DATE_INDEX = "weather_location_date_idx";
+
+    /**
+     * Serves every WeatherProvider join: after the location_setting lookup, which the
+     * unique constraint of the location table already indexes, the weather rows of a
+     * location are found by location_id and come out ordered by date, for both the
+     * start date range and the single day selections. The UNIQUE (date, location_id)
+     * index cannot help there since its first column is the date.
+     */
+    static final String SQL_CREATE_WEATHER_LOCATION_DATE_INDEX =
+            "CREATE INDEX IF NOT EXISTS " + WEATHER_LOCATION_DATE_INDEX + " ON " +
+                    WeatherContract.WeatherEntry.TABLE_NAME + " (" +
+                    WeatherContract.WeatherEntry.COLUMN_LOC_KEY + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + ");";
+
+    private final Context mContext;
+    private final String mName;
+    // Set once the file is known to exist, see createIncrementalFile().
+    private volatile boolean mFileExists;
+
     public WeatherDbHelper(Context context){
-        super(context,DATABASE_NAME,null,DATABASE_VERSION);
+        this(context, DATABASE_NAME);
+
+    }
+
+    /**
+     * Opens another database file with the same schema, used by the migration tests.
+     */
+    WeatherDbHelper(Context context, String name) {
+        super(context, name, null, DATABASE_VERSION);
+        mContext = context;
+        mName = name;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            useWriteAheadLog();
+        }
+    }
 
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private void useWriteAheadLog() {
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    /**
+     * The database runs in write-ahead log mode: the connection that writes is the only
+     * one that ever does, while queries get connections of their own from the pool and
+     * read the last committed state without waiting for a refresh transaction to end.
+     * Before Jelly Bean the mode can only be switched on once the database is open.
+     */
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN && !db.isReadOnly()) {
+            db.enableWriteAheadLogging();
+        }
+    }
+
+    @Override
+    public SQLiteDatabase getWritableDatabase() {
+        createIncrementalFile();
+        return super.getWritableDatabase();
+    }
+
+    @Override
+    public SQLiteDatabase getReadableDatabase() {
+        createIncrementalFile();
+        return super.getReadableDatabase();
+    }
+
+    /**
+     * Creates a missing database file in incremental auto_vacuum mode, so WeatherRetention
+     * can hand freed pages back in short slices. The mode is fixed once the first page is
+     * written, and opening through this helper writes it, with the android_metadata table,
+     * before onConfigure or onCreate run. Files made before this are converted by
+     * {@link WeatherContract#METHOD_VACUUM}.
+     */
+    private void createIncrementalFile() {
+        if (mFileExists) {
+            return;
+        }
+        synchronized (this) {
+            File file = mContext.getDatabasePath(mName);
+            if (!file.exists()) {
+                file.getParentFile().mkdirs();
+                SQLiteDatabase db = SQLiteDatabase.openDatabase(file.getPath(), null,
+                        SQLiteDatabase.CREATE_IF_NECESSARY | SQLiteDatabase.NO_LOCALIZED_COLLATORS);
+                try {
+                    db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+                    // Writes the first page, and the mode with it.
+                    db.execSQL("CREATE TABLE auto_vacuum_mode (mode INTEGER)");
+                    db.execSQL("DROP TABLE auto_vacuum_mode");
+                } finally {
+                    db.close();
+                }
+            }
+            mFileExists = true;
+        }
     }
 
     @Override
     public void onCreate(SQLiteDatabase sqLiteDatabase) {
-        final String SQL_CREATE_WEATHER_TABLE = "CREATE TABLE " + WeatherContract.WeatherEntry.TABLE_NAME + "("+
-                WeatherContract.WeatherEntry._ID + "INTEGER PRIMARY KEY NOT AUTOINCREMENT," +
-                WeatherContract.WeatherEntry.COLUMN_LOC_KEY + "INTEGER NOT NULL, " +
-                WeatherContract.WeatherEntry.COLUMN_DATE + "INTEGER NOT NULL, " +
-                WeatherContract.WeatherEntry.COLUMN_SHORT_DESC + "TEXT NOT NULL, " +
-                WeatherContract.WeatherEntry.COLUMN_WEATHER_ID + "INTEGER NOT NULL," +
+        final String SQL_CREATE_WEATHER_TABLE = "CREATE TABLE " + WeatherContract.WeatherEntry.TABLE_NAME + " ("+
+                WeatherContract.WeatherEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+                WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                WeatherContract.WeatherEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+                WeatherContract.WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL," +
 
-                WeatherContract.WeatherEntry.COLUMN_MIN_TEMP + "REAL NOT NULL, " +
-                WeatherContract.WeatherEntry.COLUMN_MAX_TEMP + "REAL NOT NULL, " +
+                WeatherContract.WeatherEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
+                WeatherContract.WeatherEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
 
-                WeatherContract.WeatherEntry.COLUMN_HUMIDITY + "REAL NOT NULL, " +
-                WeatherContract.WeatherEntry.COLUMN_PRESSURE + "REAL NOT NULL, " +
-                WeatherContract.WeatherEntry.COLUMN_WIND_SPEED + "REAL NOT NULL, " +
-                WeatherContract.WeatherEntry.COLUMN_DEGREE + "REAL NOT NULL, " +
+                WeatherContract.WeatherEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
+                WeatherContract.WeatherEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
+                WeatherContract.WeatherEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
+                WeatherContract.WeatherEntry.COLUMN_DEGREE + " REAL NOT NULL, " +
 
                 "FOREIGN KEY (" + WeatherContract.WeatherEntry.COLUMN_LOC_KEY + ") REFERENCES "+
                 WeatherContract.LocationEntry.TABLE_NAME + "(" + WeatherContract.LocationEntry._ID + "), " +
@@ -43,15 +144,22 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
                 WeatherContract.WeatherEntry.COLUMN_LOC_KEY + ") ON CONFLICT REPLACE);";
 
 
-        final String SQL_CREATE_LOCATION_TABLE = "CREATE TABLE" + WeatherContract.WeatherEntry.TABLE_NAME + "(" +
-                WeatherContract.LocationEntry._ID + "INTEGER PRIMARY KEY," +
-                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + "TEXT UNIQUE NOT NULL, " +
-                WeatherContract.LocationEntry.COLUMN_CITY_NAME + "REAL NOT NULL, " +
-                WeatherContract.LocationEntry.COLUMN_COORD_LAT + "REAL NOT NULL, " +
-                WeatherContract.LocationEntry.COLUMN_COORD_LONG + "REAL NOT NULL" + ");";
+        final String SQL_CREATE_LOCATION_TABLE = "CREATE TABLE " + WeatherContract.LocationEntry.TABLE_NAME + " (" +
+                WeatherContract.LocationEntry._ID + " INTEGER PRIMARY KEY," +
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " TEXT UNIQUE NOT NULL, " +
+                WeatherContract.LocationEntry.COLUMN_CITY_NAME + " TEXT NOT NULL, " +
+                WeatherContract.LocationEntry.COLUMN_COORD_LAT + " REAL NOT NULL, " +
+                WeatherContract.LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL" + ");";
+
+        // Keyed on the OpenWeatherMap condition id, the weather_id of the weather rows.
+        final String SQL_CREATE_CONDITION_TABLE = "CREATE TABLE " + WeatherContract.ConditionEntry.TABLE_NAME + " (" +
+                WeatherContract.ConditionEntry._ID + " INTEGER PRIMARY KEY," +
+                WeatherContract.ConditionEntry.COLUMN_SHORT_DESC + " TEXT NOT NULL" + ");";
 
         sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
         sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_CONDITION_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_LOCATION_DATE_INDEX);
 
 
 
@@ -60,8 +168,16 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
 
+        if (WeatherDbMigrations.canMigrate(oldVersion, newVersion)) {
+            WeatherDbMigrations.migrate(sqLiteDatabase, oldVersion, newVersion);
+            return;
+        }
+
+        // No way to keep the rows of this version, start again from an empty schema.
+        Log.w(LOG_TAG, "Dropping the tables of database version " + oldVersion);
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherContract.LocationEntry.TABLE_NAME);
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherContract.WeatherEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherContract.ConditionEntry.TABLE_NAME);
 
         onCreate(sqLiteDatabase);
 
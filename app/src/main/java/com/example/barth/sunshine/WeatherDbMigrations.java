@@ -0,0 +1,166 @@
+package com.example.barth.sunshine;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Ordered schema upgrades of {@link WeatherDbHelper} that keep the stored rows.
+ *
+ * Every {@link Step} moves the database from one version to the next and runs in its
+ * own transaction, nested in the one {@link android.database.sqlite.SQLiteOpenHelper}
+ * opens around onUpgrade: a failing step rolls the whole upgrade back and the old
+ * version is kept, so the next open starts over from it.
+ */
+final class WeatherDbMigrations {
+    private static final String LOG_TAG = WeatherDbMigrations.class.getSimpleName();
+
+    /**
+     * Versions before this one had a broken schema, they are dropped and recreated.
+     */
+    static final int OLDEST_MIGRATABLE_VERSION = 2;
+
+    /**
+     * Versions before 4 stored dates as yyyyMMdd, which the INTEGER affinity of the
+     * column turned into numbers such as 20150509. Epoch days are far below 10000000,
+     * so the rows still to convert are easy to tell apart. julianday() of 1970-01-01
+     * is 2440587.5.
+     */
+    static final String SQL_CONVERT_DATES_TO_EPOCH_DAYS =
+            "UPDATE " + WeatherContract.WeatherEntry.TABLE_NAME + " SET " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " = CAST(julianday(" +
+                    "substr(CAST(" + WeatherContract.WeatherEntry.COLUMN_DATE + " AS TEXT), 1, 4) || '-' || " +
+                    "substr(CAST(" + WeatherContract.WeatherEntry.COLUMN_DATE + " AS TEXT), 5, 2) || '-' || " +
+                    "substr(CAST(" + WeatherContract.WeatherEntry.COLUMN_DATE + " AS TEXT), 7, 2)" +
+                    ") - 2440587.5 AS INTEGER) WHERE " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " >= 10000000;";
+
+    /**
+     * Version 5 schema of the condition and weather tables, spelled out so later schema
+     * changes do not alter what this step does. Rows keep their _id, and the condition
+     * of an id is the description of any of its rows, they never differed.
+     */
+    private static final String[] SQL_EXTRACT_CONDITIONS = {
+            "CREATE TABLE condition (_id INTEGER PRIMARY KEY, short_desc TEXT NOT NULL);",
+            "INSERT INTO condition (_id, short_desc) " +
+                    "SELECT weather_id, short_desc FROM weather GROUP BY weather_id;",
+            "CREATE TABLE weather_v5 (" +
+                    "_id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                    "location_id INTEGER NOT NULL, " +
+                    "date INTEGER NOT NULL, " +
+                    "weather_id INTEGER NOT NULL," +
+                    "min REAL NOT NULL, " +
+                    "max REAL NOT NULL, " +
+                    "humidity REAL NOT NULL, " +
+                    "pressure REAL NOT NULL, " +
+                    "wind REAL NOT NULL, " +
+                    "degree REAL NOT NULL, " +
+                    "FOREIGN KEY (location_id) REFERENCES location(_id), " +
+                    "UNIQUE (date, location_id) ON CONFLICT REPLACE);",
+            "INSERT INTO weather_v5 (_id, location_id, date, weather_id, min, max, " +
+                    "humidity, pressure, wind, degree) " +
+                    "SELECT _id, location_id, date, weather_id, min, max, " +
+                    "humidity, pressure, wind, degree FROM weather;",
+            // Takes the location/date index along.
+            "DROP TABLE weather;",
+            "ALTER TABLE weather_v5 RENAME TO weather;",
+            "CREATE INDEX weather_location_date_idx ON weather (location_id, date);"
+    };
+
+    /**
+     * Upgrade from {@link #fromVersion} to {@code fromVersion + 1}.
+     */
+    abstract static class Step {
+        final int fromVersion;
+        final String description;
+
+        Step(int fromVersion, String description) {
+            this.fromVersion = fromVersion;
+            this.description = description;
+        }
+
+        abstract void apply(SQLiteDatabase db);
+    }
+
+    /**
+     * One step per version, in order. Adding a schema version means bumping
+     * DATABASE_VERSION and appending its step here.
+     */
+    static final Step[] STEPS = {
+            new Step(2, "index weather by location and date") {
+                @Override
+                void apply(SQLiteDatabase db) {
+                    db.execSQL(WeatherDbHelper.SQL_CREATE_WEATHER_LOCATION_DATE_INDEX);
+                }
+            },
+            new Step(3, "store dates as epoch days") {
+                @Override
+                void apply(SQLiteDatabase db) {
+                    db.execSQL(SQL_CONVERT_DATES_TO_EPOCH_DAYS);
+                }
+            },
+            new Step(4, "move short descriptions to the condition table") {
+                @Override
+                void apply(SQLiteDatabase db) {
+                    // SQLite cannot drop a column: the weather table is rebuilt without it.
+                    for (String sql : SQL_EXTRACT_CONDITIONS) {
+                        db.execSQL(sql);
+                    }
+                }
+            },
+    };
+
+    private WeatherDbMigrations() {
+    }
+
+    /**
+     * Whether a chain of steps leads from {@code oldVersion} to {@code newVersion}.
+     */
+    static boolean canMigrate(int oldVersion, int newVersion) {
+        if (oldVersion < OLDEST_MIGRATABLE_VERSION || oldVersion > newVersion) {
+            return false;
+        }
+        for (int version = oldVersion; version < newVersion; version++) {
+            if (findStep(version) == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Runs every step from {@code oldVersion} up to {@code newVersion}, logging the
+     * time each one took. Callers check {@link #canMigrate} first.
+     */
+    static void migrate(SQLiteDatabase db, int oldVersion, int newVersion) {
+        long start = SystemClock.elapsedRealtime();
+        for (int version = oldVersion; version < newVersion; version++) {
+            Step step = findStep(version);
+            if (step == null) {
+                throw new IllegalStateException("No migration from version " + version);
+            }
+
+            long stepStart = SystemClock.elapsedRealtime();
+            db.beginTransaction();
+            try {
+                step.apply(db);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            Log.i(LOG_TAG, "Version " + version + " -> " + (version + 1) + " (" + step.description
+                    + ") took " + (SystemClock.elapsedRealtime() - stepStart) + " ms");
+        }
+        Log.i(LOG_TAG, "Version " + oldVersion + " -> " + newVersion + " took "
+                + (SystemClock.elapsedRealtime() - start) + " ms");
+    }
+
+    private static Step findStep(int fromVersion) {
+        for (Step step : STEPS) {
+            if (step.fromVersion == fromVersion) {
+                return step;
+            }
+        }
+        return null;
+    }
+}
@@ -1,33 +1,69 @@
 package com.example.barth.sunshine;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
+import android.os.Bundle;
+import android.os.Parcelable;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.Set;
 
 /**
  * Created by barth on 05/05/15.
  */
 public class WeatherProvider extends ContentProvider{
+    private static final String LOG_TAG = WeatherProvider.class.getSimpleName();
 
-    private static final UriMatcher sUriMatcher = buildUriMatcher();
-    private WeatherDbHelper mOpenHelper;
+    // Created on first use, see getOpenHelper().
+    private volatile WeatherDbHelper mOpenHelper;
+    private ChangeNotifier mChangeNotifier;
+    private ForecastQueryCache mForecastCache;
+
+    // Uris changed by the applyBatch call running on the current thread, if any.
+    private final ThreadLocal<Set<Uri>> mBatchChangedUris = new ThreadLocal<Set<Uri>>();
 
     static final int WEATHER = 100;
     static final int WEATHER_WITH_LOCATION = 101;
     static final int WEATHER_WITH_LOCATION_AND_DATE = 102;
     static final int LOCATION = 300;
 
-    private static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
+    /**
+     * Holds the uri matcher, built when the first uri is matched rather than when the
+     * provider class is loaded, on the main thread.
+     */
+    private static class UriMatcherHolder {
+        static final UriMatcher sUriMatcher = buildUriMatcher();
+    }
+
+    /**
+     * Holds the join of the location queries, built on their first use. The join and the
+     * selections below are checked against the schema indexes by TestQueryPlans.
+     */
+    static class QueryBuilderHolder {
+        static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder =
+                buildWeatherByLocationSettingQueryBuilder();
+    }
 
-    static {
-        sWeatherByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
-        sWeatherByLocationSettingQueryBuilder.setTables(
-                WeatherContract.WeatherEntry.TABLE_NAME + "INNER JOIN " +
+    private static SQLiteQueryBuilder buildWeatherByLocationSettingQueryBuilder() {
+        SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+        builder.setTables(
+                WeatherContract.WeatherEntry.TABLE_NAME + " INNER JOIN " +
                         WeatherContract.LocationEntry.TABLE_NAME +
                         " ON " + WeatherContract.WeatherEntry.TABLE_NAME +
                         "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY +
@@ -35,39 +71,46 @@ public class WeatherProvider extends ContentProvider{
                         "." + WeatherContract.LocationEntry._ID
 
         );
+        return builder;
     }
 
-    private static final String sLocationSettingSelection =
+    static final String sLocationSettingSelection =
             WeatherContract.LocationEntry.TABLE_NAME +
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? ";
 
-    private static final String sLocationSettingWithStartDateSelection =
+    static final String sLocationSettingWithStartDateSelection =
             WeatherContract.LocationEntry.TABLE_NAME +
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " >= ?";
 
-    private static final String sLocationSettingAndDaySelection =
+    static final String sLocationSettingAndDaySelection =
             WeatherContract.LocationEntry.TABLE_NAME +
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " = ?";
 
     private Cursor getWeatherByLocationSetting(Uri uri, String [] projection, String sortOrder){
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
-        String startDate = WeatherContract.WeatherEntry.getStartDateFromUri(uri);
+        long startDate = WeatherContract.WeatherEntry.getStartDateFromUri(uri);
+
+        Cursor cached = mForecastCache.query(getOpenHelper().getReadableDatabase(), locationSetting,
+                startDate == -1 ? Long.MIN_VALUE : startDate, Long.MAX_VALUE, projection, sortOrder);
+        if (cached != null) {
+            return cached;
+        }
 
         String [] selectionArgs;
         String selection;
 
-        if(startDate == null){
+        if(startDate == -1){
             selection = sLocationSettingSelection;
             selectionArgs = new String []{locationSetting};
 
         }else {
-            selectionArgs = new String [] {locationSetting,startDate};
+            selectionArgs = new String [] {locationSetting,Long.toString(startDate)};
             selection = sLocationSettingWithStartDateSelection;
         }
 
-        return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+        return QueryBuilderHolder.sWeatherByLocationSettingQueryBuilder.query(getOpenHelper().getReadableDatabase(),
                 projection,
                 selection,
                 selectionArgs ,
@@ -80,12 +123,18 @@ public class WeatherProvider extends ContentProvider{
 
     private Cursor getWeatherByLocationSettingAndDate(Uri uri, String [] projection, String sortOrder){
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
-        String date = WeatherContract.WeatherEntry.getDateFromUri(uri);
+        long date = WeatherContract.WeatherEntry.getDateFromUri(uri);
+
+        Cursor cached = mForecastCache.query(getOpenHelper().getReadableDatabase(), locationSetting,
+                date, date, projection, sortOrder);
+        if (cached != null) {
+            return cached;
+        }
 
-        return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+        return QueryBuilderHolder.sWeatherByLocationSettingQueryBuilder.query(getOpenHelper().getReadableDatabase(),
                 projection,
                 sLocationSettingAndDaySelection,
-                new String[]{locationSetting, date},
+                new String[]{locationSetting, Long.toString(date)},
                 null,
                 null,
                 sortOrder
@@ -108,7 +157,7 @@ public class WeatherProvider extends ContentProvider{
     @Override
     public String getType(Uri uri) {
 
-        final int match = sUriMatcher.match(uri);
+        final int match = UriMatcherHolder.sUriMatcher.match(uri);
 
         switch (match)  {
 
@@ -129,8 +178,9 @@ public class WeatherProvider extends ContentProvider{
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
         Cursor retCursor = null;
+        final int match = UriMatcherHolder.sUriMatcher.match(uri);
 
-        switch (sUriMatcher.match(uri)){
+        switch (match){
             case WEATHER_WITH_LOCATION_AND_DATE:
             {
                 retCursor = getWeatherByLocationSettingAndDate(uri,projection,sortOrder);
@@ -143,7 +193,7 @@ public class WeatherProvider extends ContentProvider{
             }
 
             case WEATHER: {
-                retCursor = mOpenHelper.getReadableDatabase().query(
+                retCursor = getOpenHelper().getReadableDatabase().query(
                         WeatherContract.WeatherEntry.TABLE_NAME,
                         projection,
                         selection,
@@ -156,8 +206,8 @@ public class WeatherProvider extends ContentProvider{
             }
 
             case  LOCATION:{
-                retCursor = mOpenHelper.getReadableDatabase().query(
-                        WeatherContract.WeatherEntry.TABLE_NAME,
+                retCursor = getOpenHelper().getReadableDatabase().query(
+                        WeatherContract.LocationEntry.TABLE_NAME,
                         projection,
                         selection,
                         selectionArgs,
@@ -173,40 +223,64 @@ public class WeatherProvider extends ContentProvider{
 
         }
         retCursor.setNotificationUri(getContext().getContentResolver(),uri);
+        if (match != LOCATION) {
+            // Weather rows only carry the condition id, readers resolve it in the dictionary.
+            ConditionDictionary.getInstance().ensureLoaded(getOpenHelper().getReadableDatabase());
+        }
         return retCursor;
     }
 
     @Override
     public Uri insert(Uri uri, ContentValues values) {
-        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
-        final  int match = sUriMatcher.match(uri);
+        final SQLiteDatabase db = getOpenHelper().getWritableDatabase();
+        final  int match = UriMatcherHolder.sUriMatcher.match(uri);
         Uri returnUri;
+        int rowsInserted = 1;
 
         switch (match){
             case WEATHER: {
+                ContentValues weatherValues = new ContentValues(values);
+                String description = weatherValues.getAsString(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC);
+                weatherValues.remove(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC);
 
-                long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME,null,values);
+                long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME,null,weatherValues);
                 if( _id > 0)
                     returnUri = WeatherContract.WeatherEntry.buildWeatherUri(_id);
                 else
                     throw new SQLException("Failed to insert row into "+uri);
+                putCondition(db, weatherValues.getAsInteger(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID),
+                        description);
                 break;
             }
 
             case LOCATION: {
-                long _id = db.insert(WeatherContract.LocationEntry.TABLE_NAME,null,values);
+                // Location settings are unique: inserting a known one hands back its existing
+                // id, so callers such as WeatherRefreshEngine need no lookup first.
+                LocationIdCache.Pending locationIds = new LocationIdCache.Pending();
+                long _id = findLocationId(db,
+                        values.getAsString(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING),
+                        locationIds);
+                if (_id == -1) {
+                    _id = insertLocation(db, values, locationIds);
+                } else {
+                    rowsInserted = 0;
+                }
                 if( _id > 0)
                     returnUri = WeatherContract.LocationEntry.buildLocationUri(_id);
                 else
                     throw new SQLException("Failed to insert row into "+uri);
+                // Inside applyBatch the ids are not cached, the batch may still roll back.
+                if (!db.inTransaction()) {
+                    locationIds.publish();
+                }
                 break;
             }
 
             default:
                 throw new UnsupportedOperationException("Unknown   uri : "+uri);
         }
-        getContext().getContentResolver().notifyChange(uri,null);
-        db.close();
+        invalidateForecastCache(rowsInserted);
+        notifyChange(uri, rowsInserted);
         return returnUri   ;
 
 
@@ -214,25 +288,33 @@ public class WeatherProvider extends ContentProvider{
 
     @Override
     public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
-        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
-        final  int match = sUriMatcher.match(uri);
+        final SQLiteDatabase db = getOpenHelper().getWritableDatabase();
+        final  int match = UriMatcherHolder.sUriMatcher.match(uri);
         int rowsUpdated;
 
         if(null == selection) selection = "1";
 
         switch (match){
             case WEATHER: {
-                rowsUpdated = db.delete(
-                        WeatherContract.WeatherEntry.TABLE_NAME,selection,selectionArgs
+                ContentValues weatherValues = new ContentValues(values);
+                String description = weatherValues.getAsString(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC);
+                weatherValues.remove(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC);
+
+                rowsUpdated = db.update(
+                        WeatherContract.WeatherEntry.TABLE_NAME,weatherValues,selection,selectionArgs
                 );
+                putCondition(db, weatherValues.getAsInteger(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID),
+                        description);
 
                 break;
             }
 
             case LOCATION: {
-                rowsUpdated = db.delete(
-                        WeatherContract.LocationEntry.TABLE_NAME,selection,selectionArgs
+                rowsUpdated = db.update(
+                        WeatherContract.LocationEntry.TABLE_NAME,values,selection,selectionArgs
                 );
+                if (rowsUpdated != 0)
+                    LocationIdCache.getInstance().invalidate();
                 break;
             }
 
@@ -240,16 +322,16 @@ public class WeatherProvider extends ContentProvider{
                 throw new UnsupportedOperationException("Unknown   uri : "+uri);
         }
 
-        if(rowsUpdated != 0)
-            getContext().getContentResolver().notifyChange(uri,null);
+        invalidateForecastCache(rowsUpdated);
+        notifyChange(uri, rowsUpdated);
 
         return rowsUpdated  ;
     }
 
     @Override
     public int delete(Uri uri, String selection, String[] selectionArgs) {
-        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
-        final  int match = sUriMatcher.match(uri);
+        final SQLiteDatabase db = getOpenHelper().getWritableDatabase();
+        final  int match = UriMatcherHolder.sUriMatcher.match(uri);
         int rowsDeleted;
 
         if(null == selection) selection = "1";
@@ -267,6 +349,8 @@ public class WeatherProvider extends ContentProvider{
                 rowsDeleted = db.delete(
                         WeatherContract.LocationEntry.TABLE_NAME,selection,selectionArgs
                 );
+                if (rowsDeleted != 0)
+                    LocationIdCache.getInstance().invalidate();
                 break;
             }
 
@@ -274,33 +358,43 @@ public class WeatherProvider extends ContentProvider{
                 throw new UnsupportedOperationException("Unknown   uri : "+uri);
         }
 
-        if(rowsDeleted != 0)
-            getContext().getContentResolver().notifyChange(uri,null);
+        invalidateForecastCache(rowsDeleted);
+        notifyChange(uri, rowsDeleted);
 
         return rowsDeleted  ;
     }
 
+    /**
+     * Upserts the weather rows, keyed on (date, location). Returns the number of rows
+     * that were inserted or actually changed.
+     */
     @Override
     public int bulkInsert(Uri uri, ContentValues[] values) {
-        final  SQLiteDatabase db = mOpenHelper.getWritableDatabase();
-        final  int match = sUriMatcher.match(uri);
+        final  SQLiteDatabase db = getOpenHelper().getWritableDatabase();
+        final  int match = UriMatcherHolder.sUriMatcher.match(uri);
         switch (match){
             case WEATHER:
-                db.beginTransaction();
+                // One compiled statement pair for the whole transaction, and rows that did
+                // not change are neither rewritten nor counted.
+                db.beginTransactionNonExclusive();
                 int returnCount = 0;
+                WeatherUpsert upsert = new WeatherUpsert(db);
                 try {
                     for(ContentValues value : values){
-
-                        long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME,null,value);
-                        if (_id != -1){
+                        if (upsert.upsert(value) != WeatherUpsert.UNCHANGED){
                             returnCount++;
                         }
                     }
                     db.setTransactionSuccessful();
                 }finally {
+                    upsert.close();
                     db.endTransaction();
                 }
-                getContext().getContentResolver().notifyChange(uri,null);
+                if (!db.inTransaction()) {
+                    upsert.publish();
+                }
+                invalidateForecastCache(returnCount);
+                notifyChange(uri, returnCount);
                 return  returnCount;
 
             default:
@@ -309,9 +403,441 @@ public class WeatherProvider extends ContentProvider{
 
     }
 
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (WeatherContract.METHOD_INGEST.equals(method)) {
+            return ingest(extras);
+        }
+        if (WeatherContract.METHOD_PURGE.equals(method)) {
+            return purge(extras);
+        }
+        if (WeatherContract.METHOD_COMPACT.equals(method)) {
+            return compact(extras);
+        }
+        if (WeatherContract.METHOD_VACUUM.equals(method)) {
+            return vacuum();
+        }
+        return super.call(method, arg, extras);
+    }
+
+    /**
+     * {@link WeatherContract#METHOD_INGEST}: the locations and every weather row of the
+     * batches in a single transaction, followed by a single notification on the base
+     * uri, which reaches the observers of both tables.
+     */
+    private Bundle ingest(Bundle extras) {
+        final SQLiteDatabase db = getOpenHelper().getWritableDatabase();
+        // Needed when the bundle comes from another process and has to be unparcelled.
+        extras.setClassLoader(ForecastBatch.class.getClassLoader());
+        Parcelable[] batches = extras.getParcelableArray(WeatherContract.EXTRA_BATCHES);
+
+        int rowsChanged = 0;
+        LocationIdCache.Pending locationIds = new LocationIdCache.Pending();
+        db.beginTransactionNonExclusive();
+        WeatherUpsert upsert = new WeatherUpsert(db);
+        try {
+            if (batches != null) {
+                for (Parcelable parcelable : batches) {
+                    ForecastBatch batch = (ForecastBatch) parcelable;
+                    long locationId = findLocationId(db, batch.getLocationSetting(), locationIds);
+                    if (locationId == -1) {
+                        locationId = insertLocation(db, buildLocationValues(batch), locationIds);
+                        if (locationId == -1) {
+                            throw new SQLException("Failed to insert location " + batch.getLocationSetting());
+                        }
+                        rowsChanged++;
+                    }
+
+                    for (int day = 0; day < batch.size(); day++) {
+                        if (upsert.upsert(locationId, batch, day) != WeatherUpsert.UNCHANGED) {
+                            rowsChanged++;
+                        }
+                    }
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            upsert.close();
+            db.endTransaction();
+        }
+        if (!db.inTransaction()) {
+            upsert.publish();
+            locationIds.publish();
+        }
+
+        if (rowsChanged != 0) {
+            // Only the ingested locations changed, they are read again while their
+            // rows are likely still in the page cache.
+            if (db.inTransaction()) {
+                invalidateForecastCache(rowsChanged);
+            } else {
+                for (Parcelable parcelable : batches) {
+                    mForecastCache.reload(db, ((ForecastBatch) parcelable).getLocationSetting());
+                }
+            }
+        }
+        notifyChange(WeatherContract.BASE_CONTENT_URI, rowsChanged);
+        if (batches != null && !db.inTransaction()) {
+            writeSnapshot(batches);
+        }
+
+        Bundle result = new Bundle();
+        result.putInt(WeatherContract.EXTRA_ROWS_CHANGED, rowsChanged);
+        return result;
+    }
+
+    /**
+     * Replaces the {@link ForecastSnapshot} when the preferred location is among the
+     * committed batches. A failure only costs the next cold start its head start.
+     */
+    private void writeSnapshot(Parcelable[] batches) {
+        String preferred = Utility.getPreferredLocation(getContext());
+        for (Parcelable parcelable : batches) {
+            ForecastBatch batch = (ForecastBatch) parcelable;
+            if (preferred.equals(batch.getLocationSetting())) {
+                try {
+                    ForecastSnapshot.write(getContext(), batch);
+                } catch (IOException e) {
+                    Log.w(LOG_TAG, "Could not write the snapshot", e);
+                }
+                return;
+            }
+        }
+    }
+
+    private static ContentValues buildLocationValues(ForecastBatch batch) {
+        ContentValues values = new ContentValues();
+        values.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, batch.getLocationSetting());
+        values.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, batch.getCityName());
+        values.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, batch.getLat());
+        values.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, batch.getLon());
+        return values;
+    }
+
+    /**
+     * {@link WeatherContract#METHOD_PURGE}: old days and forgotten locations go in one
+     * transaction. Weather rows of a forgotten location are deleted before it, the
+     * foreign key would dangle otherwise.
+     */
+    private Bundle purge(Bundle extras) {
+        final SQLiteDatabase db = getOpenHelper().getWritableDatabase();
+        long oldestDay = extras.getLong(WeatherContract.EXTRA_OLDEST_DAY);
+        String[] keepLocations = extras.getStringArray(WeatherContract.EXTRA_KEEP_LOCATIONS);
+        if (keepLocations == null) {
+            keepLocations = new String[0];
+        }
+
+        String forgottenLocations = WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " NOT IN (" +
+                makePlaceholders(keepLocations.length) + ")";
+
+        int rowsDeleted;
+        int locationsDeleted;
+        ArrayList<String> purgedLocations = new ArrayList<String>();
+        db.beginTransactionNonExclusive();
+        try {
+            Cursor cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                    new String[]{WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING},
+                    forgottenLocations, keepLocations, null, null, null);
+            try {
+                while (cursor.moveToNext()) {
+                    purgedLocations.add(cursor.getString(0));
+                }
+            } finally {
+                cursor.close();
+            }
+
+            rowsDeleted = db.delete(WeatherContract.WeatherEntry.TABLE_NAME,
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " < ?",
+                    new String[]{Long.toString(oldestDay)});
+            rowsDeleted += db.delete(WeatherContract.WeatherEntry.TABLE_NAME,
+                    WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " IN (SELECT " +
+                            WeatherContract.LocationEntry._ID + " FROM " +
+                            WeatherContract.LocationEntry.TABLE_NAME + " WHERE " + forgottenLocations + ")",
+                    keepLocations);
+            locationsDeleted = db.delete(WeatherContract.LocationEntry.TABLE_NAME,
+                    forgottenLocations, keepLocations);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        if (locationsDeleted != 0) {
+            LocationIdCache.getInstance().invalidate();
+        }
+        invalidateForecastCache(rowsDeleted + locationsDeleted);
+        notifyChange(WeatherContract.BASE_CONTENT_URI, rowsDeleted + locationsDeleted);
+
+        Bundle result = new Bundle();
+        result.putInt(WeatherContract.EXTRA_ROWS_DELETED, rowsDeleted);
+        result.putInt(WeatherContract.EXTRA_LOCATIONS_DELETED, locationsDeleted);
+        result.putStringArray(WeatherContract.EXTRA_PURGED_LOCATIONS,
+                purgedLocations.toArray(new String[purgedLocations.size()]));
+        return result;
+    }
+
+    private static String makePlaceholders(int count) {
+        StringBuilder placeholders = new StringBuilder(count * 2);
+        for (int i = 0; i < count; i++) {
+            placeholders.append(i == 0 ? "?" : ",?");
+        }
+        return placeholders.toString();
+    }
+
+    /**
+     * {@link WeatherContract#METHOD_COMPACT}: one bounded slice of incremental vacuum.
+     *
+     * Deleted pages stay on the free list until a slice returns them, and no slice holds
+     * the write lock for long. Files created before {@link WeatherDbHelper} enabled
+     * incremental auto_vacuum need one {@link #vacuum()} first.
+     */
+    private Bundle compact(Bundle extras) {
+        final SQLiteDatabase db = getOpenHelper().getWritableDatabase();
+        int maxPages = extras.getInt(WeatherContract.EXTRA_MAX_PAGES);
+
+        long pageSize = DatabaseUtils.longForQuery(db, "PRAGMA page_size", null);
+        Bundle result = new Bundle();
+        result.putLong(WeatherContract.EXTRA_PAGE_SIZE, pageSize);
+        if (DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null)
+                != WeatherDbHelper.AUTO_VACUUM_INCREMENTAL) {
+            result.putBoolean(WeatherContract.EXTRA_NEEDS_VACUUM, true);
+            result.putLong(WeatherContract.EXTRA_PAGES_FREED, 0);
+            result.putLong(WeatherContract.EXTRA_FREE_PAGES, 0);
+            return result;
+        }
+
+        long freePagesBefore = DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null);
+        if (freePagesBefore > 0) {
+            // Every result row is one freed page and the pragma only goes on while the
+            // rows are stepped through, so the cursor has to be run to its end.
+            Cursor cursor = db.rawQuery("PRAGMA incremental_vacuum(" + maxPages + ")", null);
+            try {
+                cursor.getCount();
+            } finally {
+                cursor.close();
+            }
+        }
+        long freePages = DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null);
+
+        result.putLong(WeatherContract.EXTRA_PAGES_FREED, Math.max(0, freePagesBefore - freePages));
+        result.putLong(WeatherContract.EXTRA_FREE_PAGES, freePages);
+        return result;
+    }
+
+    /**
+     * {@link WeatherContract#METHOD_VACUUM}: switches the file to incremental auto_vacuum,
+     * which takes a full VACUUM. Writers wait until it is done; in write-ahead log mode
+     * readers keep reading the last commit.
+     */
+    private Bundle vacuum() {
+        final SQLiteDatabase db = getOpenHelper().getWritableDatabase();
+        long start = SystemClock.elapsedRealtime();
+        long pagesBefore = DatabaseUtils.longForQuery(db, "PRAGMA page_count", null);
+
+        // The pragma only holds for the connection that runs the VACUUM: the transaction
+        // puts it on the primary connection, the one every write, VACUUM included, uses.
+        db.beginTransaction();
+        try {
+            db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        db.execSQL("VACUUM");
+
+        long pages = DatabaseUtils.longForQuery(db, "PRAGMA page_count", null);
+        Log.i(LOG_TAG, "Vacuumed " + pagesBefore + " to " + pages + " pages in "
+                + (SystemClock.elapsedRealtime() - start) + " ms");
+
+        Bundle result = new Bundle();
+        result.putLong(WeatherContract.EXTRA_PAGES_FREED, Math.max(0, pagesBefore - pages));
+        result.putLong(WeatherContract.EXTRA_PAGE_SIZE,
+                DatabaseUtils.longForQuery(db, "PRAGMA page_size", null));
+        return result;
+    }
+
+    /**
+     * Runs the whole batch in one transaction. Change notifications raised by the
+     * operations are held back until the commit, then go through the notifier.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        final SQLiteDatabase db = getOpenHelper().getWritableDatabase();
+        final Set<Uri> changedUris = new LinkedHashSet<Uri>();
+        final ContentProviderResult[] results;
+
+        mBatchChangedUris.set(changedUris);
+        db.beginTransactionNonExclusive();
+        try {
+            results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            mBatchChangedUris.remove();
+            // Conditions written by the operations were kept out of the dictionary, and
+            // forecasts cached while the batch ran may predate its commit.
+            ConditionDictionary.getInstance().invalidate();
+            mForecastCache.invalidateAll();
+        }
+
+        for (Uri uri : changedUris) {
+            mChangeNotifier.notifyChange(uri, 1);
+        }
+        return results;
+    }
+
+    /**
+     * @return the row id of {@code locationSetting}, or -1 when it is not stored yet. An
+     * id read from the table is added to {@code pending}, to be published by the caller
+     * once its transaction commits.
+     */
+    private long findLocationId(SQLiteDatabase db, String locationSetting,
+                                LocationIdCache.Pending pending) {
+        if (locationSetting == null) {
+            return -1;
+        }
+
+        long id = LocationIdCache.getInstance().get(locationSetting);
+        if (id == -1) {
+            id = pending.get(locationSetting);
+        }
+        if (id != -1) {
+            return id;
+        }
+
+        Cursor cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                new String[]{WeatherContract.LocationEntry._ID},
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{locationSetting},
+                null,
+                null,
+                null);
+        try {
+            if (cursor.moveToFirst()) {
+                id = cursor.getLong(0);
+                pending.put(locationSetting, id);
+            }
+        } finally {
+            cursor.close();
+        }
+        return id;
+    }
+
+    /**
+     * Stores the condition of a single weather row write. Inside applyBatch it waits
+     * for the dictionary reload that follows the batch.
+     */
+    private void putCondition(SQLiteDatabase db, Integer weatherId, String description) {
+        if (weatherId == null || description == null) {
+            return;
+        }
+        ConditionDictionary.Writer conditions = new ConditionDictionary.Writer(db);
+        try {
+            conditions.put(weatherId, description);
+        } finally {
+            conditions.close();
+        }
+        if (!db.inTransaction()) {
+            conditions.publish();
+        }
+    }
+
+    private long insertLocation(SQLiteDatabase db, ContentValues values,
+                                LocationIdCache.Pending pending) {
+        long id = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, values);
+        String locationSetting =
+                values.getAsString(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING);
+        if (id != -1 && locationSetting != null) {
+            pending.put(locationSetting, id);
+        }
+        return id;
+    }
+
+    /**
+     * Changes are only reported when rows were written, and are debounced by
+     * {@link ChangeNotifier}. Inside applyBatch they wait for the commit.
+     */
+    private void notifyChange(Uri uri, int rowsChanged) {
+        Set<Uri> batchChangedUris = mBatchChangedUris.get();
+        if (batchChangedUris != null) {
+            if (rowsChanged != 0) {
+                batchChangedUris.add(uri);
+            }
+        } else {
+            mChangeNotifier.notifyChange(uri, rowsChanged);
+        }
+    }
+
+    /**
+     * Drops the cached forecasts after a write whose locations are not known. Inside a
+     * transaction this is repeated once it ends, see applyBatch.
+     */
+    private void invalidateForecastCache(int rowsChanged) {
+        if (rowsChanged != 0) {
+            mForecastCache.invalidateAll();
+        }
+    }
+
+    /**
+     * Creates the helper on first use. Creating it does not open the database, which
+     * the warm-up thread started by onCreate does off the main thread.
+     */
+    private WeatherDbHelper getOpenHelper() {
+        WeatherDbHelper helper = mOpenHelper;
+        if (helper == null) {
+            synchronized (this) {
+                helper = mOpenHelper;
+                if (helper == null) {
+                    helper = new WeatherDbHelper(getContext());
+                    mOpenHelper = helper;
+                }
+            }
+        }
+        return helper;
+    }
+
+    ForecastQueryCache getForecastCache() {
+        return mForecastCache;
+    }
+
+    ChangeNotifier getChangeNotifier() {
+        return mChangeNotifier;
+    }
+
     @Override
     public boolean onCreate() {
-        mOpenHelper = new WeatherDbHelper(getContext());
+        mChangeNotifier = new ChangeNotifier(getContext().getContentResolver());
+        mForecastCache = new ForecastQueryCache();
+
+        // Opening the database may run an upgrade, keep it off the main thread.
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                SQLiteDatabase db = getOpenHelper().getReadableDatabase();
+                StartupTrace.mark(StartupTrace.Phase.DATABASE_OPENED);
+                LocationIdCache.getInstance().warm(db);
+                ConditionDictionary.getInstance().ensureLoaded(db);
+            }
+        }, "LocationIdCache warm-up").start();
+        StartupTrace.mark(StartupTrace.Phase.PROVIDER_CREATED);
         return true;
     }
+
+    /**
+     * Prints the startup trace and the counters of the caches and of the refreshes:
+     * {@code adb shell dumpsys activity provider com.example.barth.sunshine/.WeatherProvider}
+     */
+    @Override
+    public void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        StartupTrace.dump(writer);
+        writer.println("Forecast cache: " + mForecastCache
+                + ", hit ratio " + Math.round(mForecastCache.getHitRatio() * 100) + "%");
+        writer.println("Change notifier: " + mChangeNotifier);
+        writer.println("Conditions: " + ConditionDictionary.getInstance().size()
+                + ", locations: " + LocationIdCache.getInstance().size());
+        writer.println("Response cache: " + ForecastResponseCache.getInstance(getContext()));
+        writer.println("Fetches: " + FetchCoordinator.getInstance());
+        writer.println("Sync: next run at " + SyncScheduler.getNextRun(getContext())
+                + ", " + SyncScheduler.getFailureCount(getContext()) + " failures");
+    }
 }
@@ -0,0 +1,245 @@
+package com.example.barth.sunshine;
+
+import android.content.Context;
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Refreshes many locations at once.
+ *
+ * Forecasts are downloaded on a bounded pool of worker threads, with at most
+ * {@code maxPerHost} connections open to the same host, then every location and
+ * weather row is written with a single {@link WeatherContract#METHOD_INGEST} call, which
+ * {@link WeatherProvider} runs inside one transaction.
+ */
+public class WeatherRefreshEngine {
+    private static final String LOG_TAG = WeatherRefreshEngine.class.getSimpleName();
+
+    public static final int DEFAULT_MAX_WORKERS = 4;
+    public static final int DEFAULT_MAX_PER_HOST = 2;
+
+    private static final long WORKER_KEEP_ALIVE_SECONDS = 30;
+
+    public static class Result {
+        public int locationsRefreshed;
+        public int locationsUpToDate;
+        public int locationsFailed;
+        public int rowsWritten;
+        public long bytesTransferred;
+        public long bytesDecoded;
+        public long elapsedMs;
+
+        @Override
+        public String toString() {
+            return locationsRefreshed + " locations refreshed, " + locationsUpToDate + " up to date, "
+                    + locationsFailed + " failed, " + rowsWritten + " rows, "
+                    + bytesTransferred + "/" + bytesDecoded + " bytes transferred/decoded in "
+                    + elapsedMs + " ms";
+        }
+    }
+
+    /**
+     * Forecast of one location, collected in memory until the grouped commit.
+     */
+    private static class LocationForecast {
+        final ForecastBatch batch;
+        boolean changed;
+        final ForecastFetcher.TransferStats stats = new ForecastFetcher.TransferStats();
+
+        LocationForecast(String locationSetting) {
+            batch = new ForecastBatch(locationSetting);
+        }
+    }
+
+    private final Context mContext;
+    private final ForecastFetcher mFetcher;
+    private final RefreshPolicy mPolicy;
+    private final int mMaxPerHost;
+    private final ThreadPoolExecutor mExecutor;
+    private final ConcurrentHashMap<String, Semaphore> mHostPermits =
+            new ConcurrentHashMap<String, Semaphore>();
+
+    public WeatherRefreshEngine(Context context) {
+        this(context, new ForecastFetcher(ForecastResponseCache.getInstance(context)),
+                DEFAULT_MAX_WORKERS, DEFAULT_MAX_PER_HOST);
+    }
+
+    public WeatherRefreshEngine(Context context, ForecastFetcher fetcher,
+                                int maxWorkers, int maxPerHost) {
+        mContext = context.getApplicationContext();
+        mFetcher = fetcher;
+        mPolicy = RefreshPolicy.getInstance(mContext);
+        mMaxPerHost = maxPerHost;
+
+        final AtomicInteger threadCount = new AtomicInteger();
+        mExecutor = new ThreadPoolExecutor(maxWorkers, maxWorkers,
+                WORKER_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "WeatherRefresh #" + threadCount.incrementAndGet());
+                        thread.setPriority(Thread.MIN_PRIORITY);
+                        return thread;
+                    }
+                });
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Fetches every location and commits them together. Blocks until done, never
+     * call it from the main thread. Locations that fail to download are skipped,
+     * the others are still written.
+     *
+     * @throws InterruptedException when the calling thread is interrupted while waiting
+     * for the downloads, which are then cancelled and nothing is written.
+     */
+    public Result refresh(Collection<String> locationSettings) throws InterruptedException {
+        Result result = new Result();
+        long start = SystemClock.elapsedRealtime();
+
+        List<Future<LocationForecast>> futures =
+                new ArrayList<Future<LocationForecast>>(locationSettings.size());
+        for (final String locationSetting : locationSettings) {
+            futures.add(mExecutor.submit(new Callable<LocationForecast>() {
+                @Override
+                public LocationForecast call() throws Exception {
+                    return fetch(locationSetting);
+                }
+            }));
+        }
+
+        List<LocationForecast> forecasts = new ArrayList<LocationForecast>(futures.size());
+        for (Future<LocationForecast> future : futures) {
+            try {
+                LocationForecast forecast = future.get();
+                result.bytesTransferred += forecast.stats.transferredBytes;
+                result.bytesDecoded += forecast.stats.decodedBytes;
+                if (forecast.changed) {
+                    forecasts.add(forecast);
+                } else {
+                    result.locationsUpToDate++;
+                    mPolicy.recordSuccess(forecast.batch.getLocationSetting(), System.currentTimeMillis());
+                }
+            } catch (ExecutionException e) {
+                Log.e(LOG_TAG, "Refresh failed", e.getCause());
+                result.locationsFailed++;
+            } catch (InterruptedException e) {
+                for (Future<LocationForecast> pending : futures) {
+                    pending.cancel(true);
+                }
+                throw e;
+            }
+        }
+
+        result.rowsWritten = commit(forecasts);
+        result.locationsRefreshed = forecasts.size();
+        long now = System.currentTimeMillis();
+        for (LocationForecast forecast : forecasts) {
+            mFetcher.commit(forecast.batch.getLocationSetting());
+            mPolicy.recordSuccess(forecast.batch.getLocationSetting(), now);
+        }
+        result.elapsedMs = SystemClock.elapsedRealtime() - start;
+        Log.v(LOG_TAG, result.toString());
+        return result;
+    }
+
+    /**
+     * Stops the worker threads. Pending refreshes are abandoned.
+     */
+    public void shutdown() {
+        mExecutor.shutdownNow();
+    }
+
+    private LocationForecast fetch(String locationSetting) throws IOException, InterruptedException {
+        String host = mFetcher.buildForecastUri(locationSetting).getHost();
+        Semaphore permits = mHostPermits.get(host);
+        if (permits == null) {
+            Semaphore created = new Semaphore(mMaxPerHost);
+            permits = mHostPermits.putIfAbsent(host, created);
+            if (permits == null) {
+                permits = created;
+            }
+        }
+
+        LocationForecast forecast = new LocationForecast(locationSetting);
+        permits.acquire();
+        try {
+            forecast.changed = mFetcher.fetch(locationSetting, forecast.batch, forecast.stats);
+        } finally {
+            permits.release();
+        }
+
+        if (forecast.changed && forecast.batch.getCityName() == null) {
+            throw new IOException("No city in forecast for " + locationSetting);
+        }
+        return forecast;
+    }
+
+    private int commit(List<LocationForecast> forecasts) {
+        if (forecasts.isEmpty()) {
+            return 0;
+        }
+
+        ForecastBatch[] batches = new ForecastBatch[forecasts.size()];
+        for (int i = 0; i < batches.length; i++) {
+            batches[i] = forecasts.get(i).batch;
+        }
+
+        Bundle extras = new Bundle();
+        extras.putParcelableArray(WeatherContract.EXTRA_BATCHES, batches);
+        Bundle result = mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_INGEST, null, extras);
+        return result.getInt(WeatherContract.EXTRA_ROWS_CHANGED);
+    }
+
+    /**
+     * Runs a refresh of the given locations off the main thread.
+     */
+    public static class RefreshTask extends AsyncTask<String, Void, Result> {
+        private final Context mContext;
+        private final WeatherRefreshEngine mEngine;
+
+        public RefreshTask(Context context) {
+            mContext = context.getApplicationContext();
+            mEngine = new WeatherRefreshEngine(context);
+        }
+
+        @Override
+        protected Result doInBackground(String... locationSettings) {
+            try {
+                ArrayList<String> locations = new ArrayList<String>(locationSettings.length);
+                for (String locationSetting : locationSettings) {
+                    locations.add(locationSetting);
+                }
+                return mEngine.refresh(locations);
+            } catch (InterruptedException e) {
+                Log.w(LOG_TAG, "Refresh interrupted");
+            } finally {
+                mEngine.shutdown();
+                RefreshPolicy policy = RefreshPolicy.getInstance(mContext);
+                for (String locationSetting : locationSettings) {
+                    policy.end(locationSetting);
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.example.barth.sunshine;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import java.util.Set;
+
+/**
+ * Keeps the database from growing forever.
+ *
+ * A run deletes the days older than the horizon of the retention preference and the
+ * locations that are neither preferred nor tracked anymore, then returns the freed
+ * pages to the file system in short incremental vacuum slices, pausing between them
+ * so queries from the UI get the database in between.
+ */
+public class WeatherRetention {
+    private static final String LOG_TAG = WeatherRetention.class.getSimpleName();
+
+    // Pages handed back per slice, 128 KB with the default 4 KB pages.
+    private static final int SLICE_PAGES = 32;
+    private static final long SLICE_PAUSE_MS = 50;
+    // Free pages left when the budget runs out are handed back by the next run.
+    private static final long COMPACT_BUDGET_MS = 2000;
+
+    private static final long RUN_INTERVAL_MS = WeatherContract.DAY_IN_MILLIS;
+    private static final String PREF_LAST_RUN = "retention_last_run";
+
+    public static class Report {
+        public int rowsDeleted;
+        public int locationsDeleted;
+        public long bytesReclaimed;
+        public int slices;
+        public long elapsedMs;
+        public boolean vacuumed;
+
+        @Override
+        public String toString() {
+            return rowsDeleted + " weather rows and " + locationsDeleted + " locations deleted, "
+                    + bytesReclaimed + " bytes reclaimed in " + slices + " slices"
+                    + (vacuumed ? " after a full vacuum, " : ", ") + elapsedMs + " ms";
+        }
+    }
+
+    private final Context mContext;
+
+    public WeatherRetention(Context context) {
+        mContext = context.getApplicationContext();
+    }
+
+    /**
+     * Purges and compacts. Blocks, never call it from the main thread.
+     */
+    public Report run() {
+        Report report = new Report();
+        long start = SystemClock.elapsedRealtime();
+        ContentResolver resolver = mContext.getContentResolver();
+
+        Set<String> keep = Utility.getTrackedLocations(mContext);
+        Bundle purge = new Bundle();
+        purge.putLong(WeatherContract.EXTRA_OLDEST_DAY,
+                WeatherContract.toLocalEpochDay(System.currentTimeMillis())
+                        - Utility.getRetentionDays(mContext));
+        purge.putStringArray(WeatherContract.EXTRA_KEEP_LOCATIONS, keep.toArray(new String[keep.size()]));
+        Bundle purged = resolver.call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_PURGE, null, purge);
+        report.rowsDeleted = purged.getInt(WeatherContract.EXTRA_ROWS_DELETED);
+        report.locationsDeleted = purged.getInt(WeatherContract.EXTRA_LOCATIONS_DELETED);
+        forget(purged.getStringArray(WeatherContract.EXTRA_PURGED_LOCATIONS));
+
+        Bundle compact = new Bundle();
+        compact.putInt(WeatherContract.EXTRA_MAX_PAGES, SLICE_PAGES);
+        long compactStart = SystemClock.elapsedRealtime();
+        while (true) {
+            Bundle slice = resolver.call(WeatherContract.BASE_CONTENT_URI,
+                    WeatherContract.METHOD_COMPACT, null, compact);
+            if (slice.getBoolean(WeatherContract.EXTRA_NEEDS_VACUUM)) {
+                // A file from before incremental auto_vacuum, converted once.
+                slice = resolver.call(WeatherContract.BASE_CONTENT_URI,
+                        WeatherContract.METHOD_VACUUM, null, null);
+                report.vacuumed = true;
+            }
+            report.slices++;
+            report.bytesReclaimed += slice.getLong(WeatherContract.EXTRA_PAGES_FREED)
+                    * slice.getLong(WeatherContract.EXTRA_PAGE_SIZE);
+            if (slice.getLong(WeatherContract.EXTRA_FREE_PAGES) == 0
+                    || SystemClock.elapsedRealtime() - compactStart >= COMPACT_BUDGET_MS) {
+                break;
+            }
+            SystemClock.sleep(SLICE_PAUSE_MS);
+        }
+
+        report.elapsedMs = SystemClock.elapsedRealtime() - start;
+        Log.i(LOG_TAG, report.toString());
+        return report;
+    }
+
+    /**
+     * Drops what is remembered of the fetches of purged locations. Added again later,
+     * they would otherwise get a 304 or pass for fresh, and their list would stay empty.
+     */
+    private void forget(String[] locationSettings) {
+        if (locationSettings == null) {
+            return;
+        }
+        ForecastFetcher fetcher = new ForecastFetcher(ForecastResponseCache.getInstance(mContext));
+        RefreshPolicy policy = RefreshPolicy.getInstance(mContext);
+        for (String locationSetting : locationSettings) {
+            fetcher.forget(locationSetting);
+            policy.forget(locationSetting);
+        }
+    }
+
+    /**
+     * Starts a run in the background unless one was started during the last day.
+     */
+    public static void runIfDue(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        long now = System.currentTimeMillis();
+        long lastRun = prefs.getLong(PREF_LAST_RUN, 0);
+        if (now >= lastRun && now - lastRun < RUN_INTERVAL_MS) {
+            return;
+        }
+        prefs.edit().putLong(PREF_LAST_RUN, now).apply();
+        new RetentionTask(context).execute();
+    }
+
+    /**
+     * Runs a retention pass off the main thread.
+     */
+    public static class RetentionTask extends AsyncTask<Void, Void, Report> {
+        private final WeatherRetention mRetention;
+
+        public RetentionTask(Context context) {
+            mRetention = new WeatherRetention(context);
+        }
+
+        @Override
+        protected Report doInBackground(Void... params) {
+            return mRetention.run();
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.example.barth.sunshine;
+
+import android.app.IntentService;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.util.Log;
+
+import java.util.Set;
+
+/**
+ * Refreshes the stale tracked locations in the background, when
+ * {@link SyncScheduler}'s alarm goes off, then schedules the next run.
+ */
+public class WeatherSyncService extends IntentService {
+    private static final String LOG_TAG = WeatherSyncService.class.getSimpleName();
+
+    public WeatherSyncService() {
+        super(WeatherSyncService.class.getSimpleName());
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        RefreshPolicy policy = RefreshPolicy.getInstance(this);
+        // Fresh locations and those the UI is already refreshing are left out.
+        Set<String> locations = policy.begin(Utility.getTrackedLocations(this), false);
+        if (locations.isEmpty()) {
+            Log.v(LOG_TAG, "Every location is fresh, skipping");
+            SyncScheduler.onRunFinished(this, true);
+            return;
+        }
+
+        boolean succeeded = false;
+        WeatherRefreshEngine engine = new WeatherRefreshEngine(this);
+        try {
+            WeatherRefreshEngine.Result result = engine.refresh(locations);
+            succeeded = result.locationsFailed == 0;
+        } catch (InterruptedException e) {
+            Log.w(LOG_TAG, "Sync interrupted");
+        } finally {
+            engine.shutdown();
+            for (String locationSetting : locations) {
+                policy.end(locationSetting);
+            }
+            SyncScheduler.onRunFinished(this, succeeded);
+        }
+    }
+
+    /**
+     * Starts the service when the alarm goes off, and re-arms the alarm after a reboot,
+     * which clears every alarm.
+     */
+    public static class AlarmReceiver extends BroadcastReceiver {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (Intent.ACTION_BOOT_COMPLETED.equals(intent.getAction())) {
+                SyncScheduler.ensureScheduled(context);
+            } else {
+                context.startService(new Intent(context, WeatherSyncService.class));
+            }
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package com.example.barth.sunshine;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.barth.sunshine.WeatherContract.WeatherEntry;
+
+/**
+ * Compiled write path for weather rows, meant to live for one transaction.
+ *
+ * A row is first offered to an {@code INSERT OR IGNORE}; when a row already exists
+ * for its (date, location) it is updated in place, and only when one of its values
+ * differs. Unlike the {@code ON CONFLICT REPLACE} of the table, identical rows are
+ * left alone and keep their {@code _id}.
+ *
+ * Short descriptions go to the condition table through a
+ * {@link ConditionDictionary.Writer}; call {@link #publish()} once the transaction
+ * is committed.
+ */
+class WeatherUpsert {
+
+    static final int UNCHANGED = 0;
+    static final int INSERTED = 1;
+    static final int UPDATED = 2;
+
+    // Value columns, in binding order. The key columns are bound separately.
+    private static final String[] VALUE_COLUMNS = {
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREE
+    };
+
+    private static final String SQL_INSERT;
+    private static final String SQL_UPDATE;
+
+    static {
+        StringBuilder columns = new StringBuilder();
+        StringBuilder placeholders = new StringBuilder();
+        StringBuilder assignments = new StringBuilder();
+        StringBuilder unchanged = new StringBuilder();
+        for (int i = 0; i < VALUE_COLUMNS.length; i++) {
+            String separator = i == 0 ? "" : ", ";
+            columns.append(separator).append(VALUE_COLUMNS[i]);
+            placeholders.append(separator).append('?');
+            assignments.append(separator).append(VALUE_COLUMNS[i]).append(" = ?");
+            unchanged.append(i == 0 ? "" : " AND ").append(VALUE_COLUMNS[i]).append(" IS ?");
+        }
+
+        SQL_INSERT = "INSERT OR IGNORE INTO " + WeatherEntry.TABLE_NAME + " ("
+                + WeatherEntry.COLUMN_LOC_KEY + ", " + WeatherEntry.COLUMN_DATE + ", " + columns
+                + ") VALUES (?, ?, " + placeholders + ")";
+        SQL_UPDATE = "UPDATE " + WeatherEntry.TABLE_NAME + " SET " + assignments
+                + " WHERE " + WeatherEntry.COLUMN_LOC_KEY + " = ? AND " + WeatherEntry.COLUMN_DATE + " = ?"
+                + " AND NOT (" + unchanged + ")";
+    }
+
+    private final SQLiteStatement mInsert;
+    private final SQLiteStatement mUpdate;
+    private final ConditionDictionary.Writer mConditions;
+
+    WeatherUpsert(SQLiteDatabase db) {
+        mInsert = db.compileStatement(SQL_INSERT);
+        mUpdate = db.compileStatement(SQL_UPDATE);
+        mConditions = new ConditionDictionary.Writer(db);
+    }
+
+    /**
+     * @return {@link #INSERTED}, {@link #UPDATED} or {@link #UNCHANGED}.
+     */
+    int upsert(ContentValues values) {
+        long locationId = values.getAsLong(WeatherEntry.COLUMN_LOC_KEY);
+        long date = values.getAsLong(WeatherEntry.COLUMN_DATE);
+        String description = values.getAsString(WeatherEntry.COLUMN_SHORT_DESC);
+        if (description != null) {
+            mConditions.put(values.getAsInteger(WeatherEntry.COLUMN_WEATHER_ID), description);
+        }
+
+        mInsert.clearBindings();
+        mInsert.bindLong(1, locationId);
+        mInsert.bindLong(2, date);
+        bindValues(mInsert, 3, values);
+        if (mInsert.executeInsert() != -1) {
+            return INSERTED;
+        }
+
+        mUpdate.clearBindings();
+        bindValues(mUpdate, 1, values);
+        mUpdate.bindLong(VALUE_COLUMNS.length + 1, locationId);
+        mUpdate.bindLong(VALUE_COLUMNS.length + 2, date);
+        bindValues(mUpdate, VALUE_COLUMNS.length + 3, values);
+        if (mUpdate.executeUpdateDelete() > 0) {
+            return UPDATED;
+        }
+
+        return UNCHANGED;
+    }
+
+    /**
+     * Same as {@link #upsert(ContentValues)} for one day of {@code batch}, bound from
+     * its primitive columns.
+     */
+    int upsert(long locationId, ForecastBatch batch, int day) {
+        long date = batch.getDate(day);
+        mConditions.put(batch.getWeatherId(day), batch.getShortDesc(day));
+
+        mInsert.clearBindings();
+        mInsert.bindLong(1, locationId);
+        mInsert.bindLong(2, date);
+        bindValues(mInsert, 3, batch, day);
+        if (mInsert.executeInsert() != -1) {
+            return INSERTED;
+        }
+
+        mUpdate.clearBindings();
+        bindValues(mUpdate, 1, batch, day);
+        mUpdate.bindLong(VALUE_COLUMNS.length + 1, locationId);
+        mUpdate.bindLong(VALUE_COLUMNS.length + 2, date);
+        bindValues(mUpdate, VALUE_COLUMNS.length + 3, batch, day);
+        if (mUpdate.executeUpdateDelete() > 0) {
+            return UPDATED;
+        }
+
+        return UNCHANGED;
+    }
+
+    /**
+     * Makes the conditions written by this transaction visible in the dictionary.
+     */
+    void publish() {
+        mConditions.publish();
+    }
+
+    void close() {
+        mInsert.close();
+        mUpdate.close();
+        mConditions.close();
+    }
+
+    private static void bindValues(SQLiteStatement statement, int firstIndex, ContentValues values) {
+        statement.bindLong(firstIndex, values.getAsInteger(WeatherEntry.COLUMN_WEATHER_ID));
+        statement.bindDouble(firstIndex + 1, values.getAsDouble(WeatherEntry.COLUMN_MIN_TEMP));
+        statement.bindDouble(firstIndex + 2, values.getAsDouble(WeatherEntry.COLUMN_MAX_TEMP));
+        statement.bindDouble(firstIndex + 3, values.getAsDouble(WeatherEntry.COLUMN_HUMIDITY));
+        statement.bindDouble(firstIndex + 4, values.getAsDouble(WeatherEntry.COLUMN_PRESSURE));
+        statement.bindDouble(firstIndex + 5, values.getAsDouble(WeatherEntry.COLUMN_WIND_SPEED));
+        statement.bindDouble(firstIndex + 6, values.getAsDouble(WeatherEntry.COLUMN_DEGREE));
+    }
+
+    private static void bindValues(SQLiteStatement statement, int firstIndex,
+                                   ForecastBatch batch, int day) {
+        statement.bindLong(firstIndex, batch.getWeatherId(day));
+        statement.bindDouble(firstIndex + 1, batch.getMinTemp(day));
+        statement.bindDouble(firstIndex + 2, batch.getMaxTemp(day));
+        statement.bindDouble(firstIndex + 3, batch.getHumidity(day));
+        statement.bindDouble(firstIndex + 4, batch.getPressure(day));
+        statement.bindDouble(firstIndex + 5, batch.getWindSpeed(day));
+        statement.bindDouble(firstIndex + 6, batch.getDegree(day));
+    }
+}
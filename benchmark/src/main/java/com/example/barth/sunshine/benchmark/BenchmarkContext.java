@@ -0,0 +1,62 @@
+package com.example.barth.sunshine.benchmark;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import com.example.barth.sunshine.R;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Context serving the few strings and preferences the benchmarked classes read.
+ */
+public class BenchmarkContext extends Context {
+
+    private final Map<String, String> mPreferences = new HashMap<String, String>();
+
+    private final SharedPreferences mSharedPreferences = new SharedPreferences() {
+        @Override
+        public String getString(String key, String defValue) {
+            String value = mPreferences.get(key);
+            return value != null ? value : defValue;
+        }
+
+        @Override
+        public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        }
+
+        @Override
+        public void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        }
+    };
+
+    public BenchmarkContext(String units) {
+        mPreferences.put(getString(R.string.pref_units_key), units);
+    }
+
+    @Override
+    public String getPackageName() {
+        return "com.example.barth.sunshine";
+    }
+
+    @Override
+    public String getString(int resId) {
+        // Values of res/values/strings.xml.
+        switch (resId) {
+            case R.string.pref_units_key:
+                return "temperature_label";
+            case R.string.pref_units_metric:
+                return "Metric";
+            case R.string.prefs_units_imperial:
+                return "imperial";
+            default:
+                throw new IllegalArgumentException("No string " + resId);
+        }
+    }
+
+    @Override
+    public SharedPreferences getSharedPreferences(String name, int mode) {
+        return mSharedPreferences;
+    }
+}
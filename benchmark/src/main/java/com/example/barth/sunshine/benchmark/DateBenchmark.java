@@ -0,0 +1,37 @@
+package com.example.barth.sunshine.benchmark;
+
+import com.example.barth.sunshine.WeatherContract;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * Turning a forecast timestamp into its stored date: the epoch day helpers of
+ * {@link WeatherContract}, against the yyyyMMdd string getDbDateString used to build.
+ */
+@State(Scope.Thread)
+public class DateBenchmark {
+
+    private long mMillis = 1431172800000L;
+
+    private long next() {
+        // A new day every call, so nothing is constant folded.
+        mMillis += WeatherContract.DAY_IN_MILLIS;
+        return mMillis;
+    }
+
+    @Benchmark
+    public long toEpochDay() {
+        return WeatherContract.toEpochDay(next());
+    }
+
+    @Benchmark
+    public String getDbDateString() {
+        SimpleDateFormat sdf = new SimpleDateFormat("yyyyMMdd");
+        return sdf.format(new Date(next()));
+    }
+}
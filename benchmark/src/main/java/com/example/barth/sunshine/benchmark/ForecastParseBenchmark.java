@@ -0,0 +1,81 @@
+package com.example.barth.sunshine.benchmark;
+
+import com.example.barth.sunshine.ForecastBatch;
+import com.example.barth.sunshine.ForecastJsonParser;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * One refresh worth of parsing: every location's body turned into a
+ * {@link ForecastBatch} by the streaming parser, against the JSONObject tree walk
+ * the app used before it.
+ */
+@State(Scope.Benchmark)
+public class ForecastParseBenchmark {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Param({"7", "16", "365"})
+    public int days;
+
+    @Param({"1", "10", "100"})
+    public int locations;
+
+    private byte[][] mBodies;
+
+    @Setup
+    public void setUp() {
+        mBodies = new byte[locations][];
+        for (int i = 0; i < locations; i++) {
+            mBodies[i] = Payloads.forecastBytes("City" + i, days);
+        }
+    }
+
+    @Benchmark
+    public void streamIntoBatch(Blackhole blackhole) throws IOException {
+        ForecastJsonParser parser = new ForecastJsonParser();
+        for (int i = 0; i < mBodies.length; i++) {
+            ForecastBatch batch = new ForecastBatch("location" + i);
+            parser.parse(new ByteArrayInputStream(mBodies[i]), batch);
+            blackhole.consume(batch);
+        }
+    }
+
+    @Benchmark
+    public void jsonObjectTree(Blackhole blackhole) throws JSONException {
+        for (byte[] body : mBodies) {
+            JSONObject forecastJson = new JSONObject(new String(body, UTF_8));
+            JSONObject city = forecastJson.getJSONObject("city");
+            blackhole.consume(city.getString("name"));
+            JSONObject coord = city.getJSONObject("coord");
+            blackhole.consume(coord.getDouble("lat") + coord.getDouble("lon"));
+
+            JSONArray weatherArray = forecastJson.getJSONArray("list");
+            for (int i = 0; i < weatherArray.length(); i++) {
+                JSONObject dayForecast = weatherArray.getJSONObject(i);
+                JSONObject weather = dayForecast.getJSONArray("weather").getJSONObject(0);
+                JSONObject temperature = dayForecast.getJSONObject("temp");
+                blackhole.consume(dayForecast.getLong("dt"));
+                blackhole.consume(dayForecast.getDouble("pressure"));
+                blackhole.consume(dayForecast.getInt("humidity"));
+                blackhole.consume(dayForecast.getDouble("speed"));
+                blackhole.consume(dayForecast.getDouble("deg"));
+                blackhole.consume(weather.getString("main"));
+                blackhole.consume(weather.getInt("id"));
+                blackhole.consume(temperature.getDouble("max"));
+                blackhole.consume(temperature.getDouble("min"));
+            }
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.example.barth.sunshine.benchmark;
+
+import com.example.barth.sunshine.ForecastFormatter;
+import com.example.barth.sunshine.WeatherContract;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.text.SimpleDateFormat;
+import java.util.TimeZone;
+
+/**
+ * Formatting the date and temperatures of one list row with {@link ForecastFormatter},
+ * against building a date format and concatenating strings for every row.
+ */
+@State(Scope.Thread)
+public class FormatBenchmark {
+
+    @Param({"metric", "imperial"})
+    public String units;
+
+    // A two week list, as in the app.
+    private static final int DAY_COUNT = 16;
+
+    private ForecastFormatter mFormatter;
+    private final char[] mBuffer = new char[ForecastFormatter.HIGH_LOW_BUFFER_SIZE];
+    private long mFirstDay;
+    private int mRow;
+
+    @Setup
+    public void setUp() {
+        // The formatter is a singleton, this works because every parameter value runs
+        // in its own forked JVM.
+        mFormatter = ForecastFormatter.getInstance(new BenchmarkContext(units));
+        mFirstDay = WeatherContract.toEpochDay(System.currentTimeMillis());
+    }
+
+    private int nextRow() {
+        return mRow++ % DAY_COUNT;
+    }
+
+    @Benchmark
+    public int formatHighLowsIntoBuffer() {
+        int row = nextRow();
+        return mFormatter.formatHighLows(20.4 + row, 9.6 - row, mBuffer);
+    }
+
+    @Benchmark
+    public String formatHighLowsConcatenated() {
+        int row = nextRow();
+        double high = 20.4 + row;
+        double low = 9.6 - row;
+        if (units.equals("imperial")) {
+            high = (high * 1.8) + 32;
+            low = (low * 1.8) + 32;
+        }
+        return Math.round(high) + "/" + Math.round(low);
+    }
+
+    @Benchmark
+    public String formatDateCached() {
+        return mFormatter.formatDate(mFirstDay + nextRow());
+    }
+
+    @Benchmark
+    public String formatDateNewFormat() {
+        SimpleDateFormat shortenedDateFormat = new SimpleDateFormat("EEE MMM dd");
+        shortenedDateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return shortenedDateFormat.format(WeatherContract.epochDayToMillis(mFirstDay + nextRow()));
+    }
+}
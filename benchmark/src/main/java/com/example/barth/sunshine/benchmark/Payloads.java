@@ -0,0 +1,52 @@
+package com.example.barth.sunshine.benchmark;
+
+import java.nio.charset.Charset;
+
+/**
+ * OpenWeatherMap daily forecast bodies, with the fields, nesting and number formats
+ * of a real "forecast/daily?mode=json&units=metric" answer.
+ */
+public final class Payloads {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // 2015-05-09 12:00 UTC, the API stamps every day at noon.
+    private static final long FIRST_DAY = 1431172800L;
+
+    private Payloads() {
+    }
+
+    public static String forecastJson(String city, int numDays) {
+        StringBuilder json = new StringBuilder(256 + numDays * 320);
+        json.append("{\"city\":{\"id\":2988507,\"name\":\"").append(city)
+                .append("\",\"coord\":{\"lon\":2.3488,\"lat\":48.853409},\"country\":\"FR\",")
+                .append("\"population\":0},")
+                .append("\"cod\":\"200\",\"message\":0.0123,\"cnt\":").append(numDays)
+                .append(",\"list\":[");
+        for (int i = 0; i < numDays; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"dt\":").append(FIRST_DAY + i * 86400L)
+                    .append(",\"temp\":{\"day\":18.47,\"min\":").append(9 + i % 5).append(".32")
+                    .append(",\"max\":").append(19 + i % 7).append(".61")
+                    .append(",\"night\":10.2,\"eve\":16.43,\"morn\":12.1},")
+                    .append("\"pressure\":1012.52,\"humidity\":").append(60 + i % 30)
+                    .append(",\"weather\":[{\"id\":").append(i % 3 == 0 ? 800 : 500 + i % 2)
+                    .append(",\"main\":\"").append(i % 3 == 0 ? "Clear" : "Rain")
+                    .append("\",\"description\":\"").append(i % 3 == 0 ? "sky is clear" : "light rain")
+                    .append("\",\"icon\":\"").append(i % 3 == 0 ? "01d" : "10d").append("\"}],")
+                    .append("\"speed\":4.16,\"deg\":").append(i * 40 % 360)
+                    .append(",\"clouds\":").append(i * 13 % 100);
+            if (i % 3 != 0) {
+                json.append(",\"rain\":").append(i % 4).append(".5");
+            }
+            json.append('}');
+        }
+        json.append("]}");
+        return json.toString();
+    }
+
+    public static byte[] forecastBytes(String city, int numDays) {
+        return forecastJson(city, numDays).getBytes(UTF_8);
+    }
+}
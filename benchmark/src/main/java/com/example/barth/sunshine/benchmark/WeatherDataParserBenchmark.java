@@ -0,0 +1,56 @@
+package com.example.barth.sunshine.benchmark;
+
+import com.example.barth.sunshine.WeatherDataParser;
+
+import org.json.JSONException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Reading values of one body through {@link WeatherDataParser}: the maximum of every
+ * day one call at a time, every metric of every day from a single parse, and one
+ * value from a lazy parse.
+ */
+@State(Scope.Benchmark)
+public class WeatherDataParserBenchmark {
+
+    @Param({"7", "16", "365"})
+    public int days;
+
+    private String mBody;
+
+    @Setup
+    public void setUp() {
+        mBody = Payloads.forecastJson("Paris", days);
+    }
+
+    @Benchmark
+    public void maxTemperatureOfEveryDay(Blackhole blackhole) throws JSONException {
+        for (int day = 0; day < days; day++) {
+            blackhole.consume(WeatherDataParser.getMaxTemperatureForDay(mBody, day));
+        }
+    }
+
+    @Benchmark
+    public void everyMetricOfEveryDay(Blackhole blackhole) throws JSONException {
+        WeatherDataParser.Forecast forecast = WeatherDataParser.parse(mBody);
+        for (int day = 0; day < forecast.size(); day++) {
+            blackhole.consume(forecast.getMaxTemperature(day));
+            blackhole.consume(forecast.getMinTemperature(day));
+            blackhole.consume(forecast.getHumidity(day));
+            blackhole.consume(forecast.getPressure(day));
+            blackhole.consume(forecast.getWindSpeed(day));
+            blackhole.consume(forecast.getWindDirection(day));
+        }
+    }
+
+    @Benchmark
+    public double lastMaxTemperatureLazily() throws JSONException {
+        WeatherDataParser.LazyForecast forecast = WeatherDataParser.parseLazily(mBody);
+        return forecast.getMaxTemperature(forecast.size() - 1);
+    }
+}
@@ -0,0 +1,15 @@
+package android.content;
+
+import android.net.Uri;
+
+/**
+ * Stand-in for the platform class.
+ */
+public final class ContentUris {
+    private ContentUris() {
+    }
+
+    public static Uri withAppendedId(Uri contentUri, long id) {
+        return contentUri.buildUpon().appendPath(String.valueOf(id)).build();
+    }
+}
@@ -0,0 +1,18 @@
+package android.content;
+
+/**
+ * Stand-in for the platform class, reduced to what the benchmarked classes call.
+ */
+public abstract class Context {
+    public static final int MODE_PRIVATE = 0;
+
+    public Context getApplicationContext() {
+        return this;
+    }
+
+    public abstract String getPackageName();
+
+    public abstract String getString(int resId);
+
+    public abstract SharedPreferences getSharedPreferences(String name, int mode);
+}
@@ -0,0 +1,16 @@
+package android.content;
+
+/**
+ * Stand-in for the platform interface, reduced to what the benchmarked classes read.
+ */
+public interface SharedPreferences {
+    String getString(String key, String defValue);
+
+    void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener);
+
+    void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener);
+
+    interface OnSharedPreferenceChangeListener {
+        void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key);
+    }
+}
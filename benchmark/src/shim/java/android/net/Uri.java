@@ -0,0 +1,134 @@
+package android.net;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Stand-in for the platform class, enough for the constants and builders of
+ * WeatherContract: hierarchical uris without fragments.
+ */
+public final class Uri {
+    private final String mUriString;
+
+    private Uri(String uriString) {
+        mUriString = uriString;
+    }
+
+    public static Uri parse(String uriString) {
+        return new Uri(uriString);
+    }
+
+    public Builder buildUpon() {
+        return new Builder(mUriString);
+    }
+
+    private String getPathAndQuery() {
+        int scheme = mUriString.indexOf("://");
+        int path = mUriString.indexOf('/', scheme < 0 ? 0 : scheme + 3);
+        return path < 0 ? "" : mUriString.substring(path);
+    }
+
+    public List<String> getPathSegments() {
+        String path = getPathAndQuery();
+        int query = path.indexOf('?');
+        if (query >= 0) {
+            path = path.substring(0, query);
+        }
+        List<String> segments = new ArrayList<String>();
+        for (String segment : path.split("/")) {
+            if (segment.length() > 0) {
+                segments.add(decode(segment));
+            }
+        }
+        return Collections.unmodifiableList(segments);
+    }
+
+    public String getLastPathSegment() {
+        List<String> segments = getPathSegments();
+        return segments.isEmpty() ? null : segments.get(segments.size() - 1);
+    }
+
+    public String getQueryParameter(String key) {
+        String path = getPathAndQuery();
+        int query = path.indexOf('?');
+        if (query < 0) {
+            return null;
+        }
+        for (String parameter : path.substring(query + 1).split("&")) {
+            int equals = parameter.indexOf('=');
+            String name = decode(equals < 0 ? parameter : parameter.substring(0, equals));
+            if (name.equals(key)) {
+                return equals < 0 ? "" : decode(parameter.substring(equals + 1));
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof Uri && mUriString.equals(((Uri) o).mUriString);
+    }
+
+    @Override
+    public int hashCode() {
+        return mUriString.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return mUriString;
+    }
+
+    private static String encode(String s) {
+        try {
+            return URLEncoder.encode(s, "UTF-8").replace("+", "%20");
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static String decode(String s) {
+        try {
+            return URLDecoder.decode(s, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    public static final class Builder {
+        private final StringBuilder mPath;
+        private final StringBuilder mQuery = new StringBuilder();
+
+        Builder(String uriString) {
+            int query = uriString.indexOf('?');
+            mPath = new StringBuilder(query < 0 ? uriString : uriString.substring(0, query));
+            if (query >= 0) {
+                mQuery.append(uriString.substring(query + 1));
+            }
+        }
+
+        public Builder appendPath(String newSegment) {
+            if (mPath.length() == 0 || mPath.charAt(mPath.length() - 1) != '/') {
+                mPath.append('/');
+            }
+            mPath.append(encode(newSegment));
+            return this;
+        }
+
+        public Builder appendQueryParameter(String key, String value) {
+            if (mQuery.length() > 0) {
+                mQuery.append('&');
+            }
+            mQuery.append(encode(key)).append('=').append(encode(value));
+            return this;
+        }
+
+        public Uri build() {
+            return new Uri(mQuery.length() == 0 ? mPath.toString() : mPath + "?" + mQuery);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package android.os;
+
+/**
+ * Stand-in for the platform class. Marshalling is done by native code on a device
+ * and is not benchmarked here, every method throws.
+ */
+public final class Parcel {
+    private Parcel() {
+    }
+
+    public void writeString(String val) {
+        throw new UnsupportedOperationException();
+    }
+
+    public void writeInt(int val) {
+        throw new UnsupportedOperationException();
+    }
+
+    public void writeLong(long val) {
+        throw new UnsupportedOperationException();
+    }
+
+    public void writeDouble(double val) {
+        throw new UnsupportedOperationException();
+    }
+
+    public String readString() {
+        throw new UnsupportedOperationException();
+    }
+
+    public int readInt() {
+        throw new UnsupportedOperationException();
+    }
+
+    public long readLong() {
+        throw new UnsupportedOperationException();
+    }
+
+    public double readDouble() {
+        throw new UnsupportedOperationException();
+    }
+}
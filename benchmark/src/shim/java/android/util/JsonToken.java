@@ -0,0 +1,17 @@
+package android.util;
+
+/**
+ * Same constants as the platform enum, and as Gson's which {@link JsonReader} wraps.
+ */
+public enum JsonToken {
+    BEGIN_ARRAY,
+    END_ARRAY,
+    BEGIN_OBJECT,
+    END_OBJECT,
+    NAME,
+    STRING,
+    NUMBER,
+    BOOLEAN,
+    NULL,
+    END_DOCUMENT
+}
@@ -0,0 +1,19 @@
+package com.example.barth.sunshine;
+
+/**
+ * Stand-in for the generated resource ids the benchmarked classes use. Their values
+ * are served by the benchmarks' context.
+ */
+public final class R {
+    private R() {
+    }
+
+    public static final class string {
+        public static final int pref_units_key = 1;
+        public static final int pref_units_metric = 2;
+        public static final int prefs_units_imperial = 3;
+
+        private string() {
+        }
+    }
+}